@@ -0,0 +1,71 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the check the packet listener runs for every entity spawn packet, in packets per second
+ * Most spawn packets are for other entities, so both hidden and other ids are measured
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HiddenCloudBenchmark
+{
+    private static final int IDS = 4096;
+    
+    @Param({"10", "1000", "50000"})
+    public int hidden;
+    
+    private CloudStore store;
+    private final int[] hiddenIDs = new int[IDS];
+    private final int[] otherIDs = new int[IDS];
+    private int cursor = 0;
+    
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        FakeServer.install();
+        World world = FakeServer.world("world");
+        Plugin plugin = FakeServer.plugin("HiddenCloudBenchmark");
+        store = CloudStore.standalone(plugin, false, true);
+        MetadataStore view = store.view(plugin, new BlockKeyCache(plugin));
+        
+        int first = FakeServer.getNextEntityID();
+        for(int i = 0; i < hidden; i++)
+        {
+            view.create(world, i % 256, i / 256);
+        }
+        Random random = new Random(42);
+        for(int i = 0; i < IDS; i++)
+        {
+            hiddenIDs[i] = first + random.nextInt(hidden);
+            otherIDs[i] = first + hidden + random.nextInt(1_000_000);
+        }
+    }
+    
+    private int next()
+    {
+        cursor = (cursor + 1) & (IDS - 1);
+        return cursor;
+    }
+    
+    @Benchmark
+    public boolean hiddenCloud()
+    {
+        return store.isHidden(hiddenIDs[next()]);
+    }
+    
+    @Benchmark
+    public boolean otherEntity()
+    {
+        return store.isHidden(otherIDs[next()]);
+    }
+}
@@ -0,0 +1,47 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one tick of the cloud keepalive task with a number of loaded clouds
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeepaliveBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int clouds;
+    
+    private Runnable keepalive;
+    
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        FakeServer.install();
+        World world = FakeServer.world("world");
+        Plugin plugin = FakeServer.plugin("KeepaliveBenchmark");
+        
+        // The store schedules its keepalive task as soon as it is constructed
+        int task = FakeServer.getTasks().size();
+        MetadataStore store = CloudStore.standalone(plugin, true, false).view(plugin, new BlockKeyCache(plugin));
+        keepalive = FakeServer.getTasks().get(task);
+        for(int i = 0; i < clouds; i++)
+        {
+            store.create(world, i % 128, i / 128);
+        }
+    }
+    
+    @Benchmark
+    public void tick()
+    {
+        keepalive.run();
+    }
+}
@@ -0,0 +1,137 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Chunk;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-block lookups and changes of the API on chunks that are already loaded
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataBenchmark
+{
+    // Positions are cycled through so lookups don't keep hitting the same slot
+    private static final int POSITIONS = 4096;
+    
+    @Param({"100", "10000"})
+    public int entries;
+    
+    private PersistentBlockMetadataAPI api;
+    private World world;
+    private Chunk chunk;
+    private final int[] xs = new int[POSITIONS];
+    private final int[] ys = new int[POSITIONS];
+    private final int[] zs = new int[POSITIONS];
+    private final int[] missYs = new int[POSITIONS];
+    private final Block[] blocks = new Block[POSITIONS];
+    private final PersistentDataContainer[] values = new PersistentDataContainer[POSITIONS];
+    private int cursor = 0;
+    
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        FakeServer.install();
+        world = FakeServer.world("world");
+        chunk = FakeServer.chunk(world, 0, 0);
+        api = new PersistentBlockMetadataAPI(FakeServer.plugin("MetadataBenchmark"));
+        
+        // Entries are spread over 4x4 chunks like the machines of a base
+        Random random = new Random(42);
+        for(int i = 0; i < entries; i++)
+        {
+            int x = random.nextInt(64);
+            int y = random.nextInt(256);
+            int z = random.nextInt(64);
+            PersistentDataContainer value = new FakeContainer();
+            api.set(world, x, y, z, value);
+            
+            int position = i % POSITIONS;
+            if(i < POSITIONS)
+            {
+                xs[position] = x;
+                ys[position] = y;
+                zs[position] = z;
+                missYs[position] = 256 + random.nextInt(256);
+                blocks[position] = FakeServer.block(world, x, y, z);
+                values[position] = value;
+            }
+        }
+        // With fewer entries than positions the tagged ones are repeated
+        for(int i = entries; i < POSITIONS; i++)
+        {
+            int from = i % entries;
+            xs[i] = xs[from];
+            ys[i] = ys[from];
+            zs[i] = zs[from];
+            missYs[i] = missYs[from];
+            blocks[i] = blocks[from];
+            values[i] = values[from];
+        }
+    }
+    
+    private int next()
+    {
+        cursor = (cursor + 1) & (POSITIONS - 1);
+        return cursor;
+    }
+    
+    @Benchmark
+    public boolean has()
+    {
+        int i = next();
+        return api.has(world, xs[i], ys[i], zs[i]);
+    }
+    
+    @Benchmark
+    public boolean hasMiss()
+    {
+        int i = next();
+        return api.has(world, xs[i], missYs[i], zs[i]);
+    }
+    
+    @Benchmark
+    public PersistentDataContainer get()
+    {
+        int i = next();
+        return api.get(world, xs[i], ys[i], zs[i]);
+    }
+    
+    @Benchmark
+    public void set()
+    {
+        int i = next();
+        api.set(world, xs[i], ys[i], zs[i], values[i]);
+    }
+    
+    @Benchmark
+    public void removeAndSet()
+    {
+        int i = next();
+        api.remove(world, xs[i], ys[i], zs[i]);
+        api.set(world, xs[i], ys[i], zs[i], values[i]);
+    }
+    
+    @Benchmark
+    public NamespacedKey keyFor()
+    {
+        return api.keyFor(blocks[next()]);
+    }
+    
+    @Benchmark
+    public Set<Block> getMetadataLocations()
+    {
+        return api.getMetadataLocations(chunk);
+    }
+}
@@ -0,0 +1,103 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the packet listener listening to all six entity packet types against listening to spawn packets only,
+ * in packets per second of a server's outgoing entity packets
+ * ProtocolLib can't build packet events without a server, so each packet runs the listener body it would reach:
+ * every packet for the old filter and spawn packets only for the current one. The cost of ProtocolLib building an
+ * event for each packet a listener receives isn't included, which only favours the old filter
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketFilterBenchmark
+{
+    private static final int PACKETS = 4096;
+    private static final int SPAWN = 0;
+    
+    // Roughly what a server with moving mobs sends: spawn, metadata, velocity, head rotation, teleport, relative move
+    private static final int[] MIX = {2, 10, 8, 20, 5, 55};
+    
+    @Param({"10", "1000", "50000"})
+    public int hidden;
+    
+    private CloudStore store;
+    private final Map<UUID, ConcurrentIntSet> hiddenByWorld = new ConcurrentHashMap<>();
+    private UUID worldID;
+    private final int[] types = new int[PACKETS];
+    private final int[] ids = new int[PACKETS];
+    private int cursor = 0;
+    
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        FakeServer.install();
+        World world = FakeServer.world("world");
+        Plugin plugin = FakeServer.plugin("PacketFilterBenchmark");
+        store = CloudStore.standalone(plugin, false, true);
+        MetadataStore view = store.view(plugin, new BlockKeyCache(plugin));
+        
+        // The old filter kept a set of hidden ids per world and looked up the receiving player's world for every packet
+        int first = FakeServer.getNextEntityID();
+        ConcurrentIntSet worldHidden = new ConcurrentIntSet();
+        for(int i = 0; i < hidden; i++)
+        {
+            view.create(world, i % 256, i / 256);
+            worldHidden.add(first + i);
+        }
+        worldID = world.getUID();
+        hiddenByWorld.put(worldID, worldHidden);
+        
+        // Hidden clouds only ever show up in spawn packets since the rest are for entities clients know about
+        Random random = new Random(42);
+        for(int i = 0; i < PACKETS; i++)
+        {
+            int roll = random.nextInt(100);
+            int type = 0;
+            while(roll >= MIX[type])
+            {
+                roll -= MIX[type];
+                type++;
+            }
+            types[i] = type;
+            ids[i] = type == SPAWN && random.nextBoolean() ? first + random.nextInt(hidden) :
+                    first + hidden + random.nextInt(1_000_000);
+        }
+    }
+    
+    private int next()
+    {
+        cursor = (cursor + 1) & (PACKETS - 1);
+        return cursor;
+    }
+    
+    @Benchmark
+    public boolean sixPacketFilter()
+    {
+        // The world's id is read from a field, which is cheaper than the getPlayer().getWorld().getUID() it stands for
+        int packet = next();
+        ConcurrentIntSet worldHidden = hiddenByWorld.get(worldID);
+        return worldHidden != null && worldHidden.contains(ids[packet]);
+    }
+    
+    @Benchmark
+    public boolean spawnOnlyFilter()
+    {
+        // Other packet types never reach the listener
+        int packet = next();
+        return types[packet] == SPAWN && store.isHidden(ids[packet]);
+    }
+}
@@ -0,0 +1,134 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+/**
+ * Packs a block position relative to its chunk into a single int
+ * The low 4 bits are x, the next 4 bits are z and the remaining (signed) bits are y
+ */
+public final class BlockKey
+{
+    /**
+     * Returned by {@link #parse(String)} when the string isn't a block key
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+    
+    /**
+     * The lowest y coordinate a key can hold
+     */
+    public static final int MIN_Y = -(1 << 23);
+    
+    /**
+     * The highest y coordinate a key can hold
+     */
+    public static final int MAX_Y = (1 << 23) - 1;
+    
+    private BlockKey()
+    {
+    }
+    
+    /**
+     * Packs a block position into a key relative to the chunk containing it
+     * @param x the world x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the world z coordinate of the block
+     * @return the packed key
+     */
+    public static int pack(int x, int y, int z)
+    {
+        return (y << 8) | ((z & 15) << 4) | (x & 15);
+    }
+    
+    /**
+     * Gets the x coordinate of a packed key relative to its chunk
+     * @param key the packed key
+     * @return the x coordinate from 0 to 15
+     */
+    public static int x(int key)
+    {
+        return key & 15;
+    }
+    
+    /**
+     * Gets the y coordinate of a packed key
+     * @param key the packed key
+     * @return the y coordinate
+     */
+    public static int y(int key)
+    {
+        return key >> 8;
+    }
+    
+    /**
+     * Gets the z coordinate of a packed key relative to its chunk
+     * @param key the packed key
+     * @return the z coordinate from 0 to 15
+     */
+    public static int z(int key)
+    {
+        return (key >> 4) & 15;
+    }
+    
+    /**
+     * Formats a packed key the way it is stored on disk ({@code x_y_z})
+     * @param key the packed key
+     * @return the string form of the key
+     */
+    public static String toString(int key)
+    {
+        return x(key) + "_" + y(key) + "_" + z(key);
+    }
+    
+    /**
+     * Parses a stored key of the form {@code x_y_z}, optionally prefixed with a namespace
+     * @param key the stored key
+     * @return the packed key or {@link #INVALID} if the string isn't a block key
+     */
+    public static long parse(String key)
+    {
+        int start = key.indexOf(':') + 1;
+        int firstSplit = key.indexOf('_', start);
+        if(firstSplit == -1)
+        {
+            return INVALID;
+        }
+        int secondSplit = key.indexOf('_', firstSplit + 1);
+        if(secondSplit == -1)
+        {
+            return INVALID;
+        }
+        
+        long x = parseInt(key, start, firstSplit);
+        long y = parseInt(key, firstSplit + 1, secondSplit);
+        long z = parseInt(key, secondSplit + 1, key.length());
+        if(x < 0 || x > 15 || z < 0 || z > 15 || y == INVALID)
+        {
+            return INVALID;
+        }
+        return pack((int) x, (int) y, (int) z);
+    }
+    
+    private static long parseInt(String string, int start, int end)
+    {
+        if(start >= end)
+        {
+            return INVALID;
+        }
+        
+        boolean negative = string.charAt(start) == '-';
+        if(negative && ++start == end)
+        {
+            return INVALID;
+        }
+        
+        long value = 0;
+        for(int i = start; i < end; i++)
+        {
+            char c = string.charAt(i);
+            if(c < '0' || c > '9' || value > Integer.MAX_VALUE)
+            {
+                return INVALID;
+            }
+            value = (value * 10) + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,55 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Caches the NamespacedKey for each packed block key so lookups don't build new strings
+ * Keys are grouped into lazily created 16x16x16 sections; racing threads may create a key twice, which is harmless
+ */
+final class BlockKeyCache
+{
+    private static final int SECTION_OFFSET = 128;
+    
+    private final Plugin plugin;
+    private final NamespacedKey[][] sections = new NamespacedKey[SECTION_OFFSET * 2][];
+    
+    BlockKeyCache(Plugin plugin)
+    {
+        this.plugin = plugin;
+    }
+    
+    /**
+     * Gets the NamespacedKey for a packed block key
+     * @param key the packed block key
+     * @return the NamespacedKey storing the block's data
+     */
+    NamespacedKey get(int key)
+    {
+        int sectionIndex = (key >> 12) + SECTION_OFFSET;
+        if(sectionIndex < 0 || sectionIndex >= sections.length)
+        {
+            return create(key);
+        }
+        
+        NamespacedKey[] section = sections[sectionIndex];
+        if(section == null)
+        {
+            section = new NamespacedKey[4096];
+            sections[sectionIndex] = section;
+        }
+        
+        NamespacedKey namespacedKey = section[key & 4095];
+        if(namespacedKey == null)
+        {
+            namespacedKey = create(key);
+            section[key & 4095] = namespacedKey;
+        }
+        return namespacedKey;
+    }
+    
+    private NamespacedKey create(int key)
+    {
+        return new NamespacedKey(plugin, BlockKey.toString(key));
+    }
+}
@@ -0,0 +1,19 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Visits the blocks found by a spatial query without creating a Block for each of them
+ */
+public interface BlockVisitor
+{
+    /**
+     * Called for each block with metadata that matches the query
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     */
+    void visit(@NotNull World world, int x, int y, int z);
+}
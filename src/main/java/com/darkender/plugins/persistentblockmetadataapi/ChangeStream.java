@@ -0,0 +1,237 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+import org.bukkit.util.BoundingBox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects metadata changes during a tick and delivers them to subscribers in one batch per world
+ * Changes to the same position are coalesced so only the last one is delivered
+ * Only used on the main thread
+ */
+final class ChangeStream
+{
+    // Chunk changes are coalesced with each other under a key no block can have
+    private static final int CHUNK = Integer.MIN_VALUE;
+    
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private Map<UUID, Batch> recording = new HashMap<>();
+    private Map<UUID, Batch> dispatching = new HashMap<>();
+    private final MetadataChanges view = new MetadataChanges();
+    private int[] filtered = new int[16];
+    private int filteredSize = 0;
+    
+    void subscribe(MetadataChangeListener listener, World world, BoundingBox region)
+    {
+        subscriptions.add(new Subscription(listener, world == null ? null : world.getUID(), region));
+    }
+    
+    void unsubscribe(MetadataChangeListener listener)
+    {
+        subscriptions.removeIf(subscription -> subscription.listener == listener);
+    }
+    
+    void recordBlock(World world, int x, int y, int z, MetadataChangeType type, BlockFace direction)
+    {
+        if(!subscriptions.isEmpty())
+        {
+            batchFor(world).record(ChunkRegistry.chunkKey(x >> 4, z >> 4), BlockKey.pack(x, y, z), type, direction);
+        }
+    }
+    
+    void recordBlock(ChunkData chunkData, int key, MetadataChangeType type)
+    {
+        if(!subscriptions.isEmpty())
+        {
+            batchFor(chunkData.getWorld()).record(chunkData.getKey(), key, type, null);
+        }
+    }
+    
+    void recordChunk(ChunkData chunkData, MetadataChangeType type)
+    {
+        if(!subscriptions.isEmpty())
+        {
+            batchFor(chunkData.getWorld()).record(chunkData.getKey(), CHUNK, type, null);
+        }
+    }
+    
+    private Batch batchFor(World world)
+    {
+        return recording.computeIfAbsent(world.getUID(), id -> new Batch());
+    }
+    
+    /**
+     * Delivers the changes recorded since the last call
+     */
+    void dispatch()
+    {
+        // Changes made by subscribers while they are called go into the next batch
+        Map<UUID, Batch> batches = recording;
+        recording = dispatching;
+        dispatching = batches;
+        
+        for(Map.Entry<UUID, Batch> entry : batches.entrySet())
+        {
+            Batch batch = entry.getValue();
+            World world = Bukkit.getWorld(entry.getKey());
+            if(batch.size == 0 || world == null)
+            {
+                batch.clear();
+                continue;
+            }
+            for(Subscription subscription : subscriptions)
+            {
+                if(subscription.worldID != null && !subscription.worldID.equals(entry.getKey()))
+                {
+                    continue;
+                }
+                int[] indices = subscription.region == null ? null : filter(batch, subscription.region);
+                int size = indices == null ? batch.size : filteredSize;
+                if(size == 0)
+                {
+                    continue;
+                }
+                view.reset(batch.types, batch.chunks, batch.keys, batch.directions, indices, size);
+                try
+                {
+                    subscription.listener.onChanges(world, view);
+                }
+                catch(Throwable e)
+                {
+                    Bukkit.getLogger().warning("A block metadata change listener failed");
+                    e.printStackTrace();
+                }
+            }
+            batch.clear();
+        }
+    }
+    
+    private int[] filter(Batch batch, BoundingBox region)
+    {
+        filteredSize = 0;
+        if(filtered.length < batch.size)
+        {
+            filtered = new int[batch.size];
+        }
+        for(int i = 0; i < batch.size; i++)
+        {
+            int chunkX = (int) (batch.chunks[i] >> 32);
+            int chunkZ = (int) batch.chunks[i];
+            int key = batch.keys[i];
+            boolean inside;
+            if(key == CHUNK)
+            {
+                // Chunks are included if they overlap the region at all
+                inside = region.getMinX() < (chunkX << 4) + 16 && region.getMaxX() > (chunkX << 4)
+                        && region.getMinZ() < (chunkZ << 4) + 16 && region.getMaxZ() > (chunkZ << 4);
+            }
+            else
+            {
+                inside = region.contains((chunkX << 4) + BlockKey.x(key) + 0.5, BlockKey.y(key) + 0.5,
+                        (chunkZ << 4) + BlockKey.z(key) + 0.5);
+            }
+            if(inside)
+            {
+                filtered[filteredSize++] = i;
+            }
+        }
+        return filtered;
+    }
+    
+    private static final class Subscription
+    {
+        private final MetadataChangeListener listener;
+        private final UUID worldID;
+        private final BoundingBox region;
+        
+        private Subscription(MetadataChangeListener listener, UUID worldID, BoundingBox region)
+        {
+            this.listener = listener;
+            this.worldID = worldID;
+            this.region = region;
+        }
+    }
+    
+    /**
+     * The changes of one world, stored column-wise and reused from tick to tick
+     * Positions are found through an open-addressing table so repeated changes overwrite the earlier entry
+     */
+    private static final class Batch
+    {
+        private byte[] types = new byte[16];
+        private long[] chunks = new long[16];
+        private int[] keys = new int[16];
+        private byte[] directions = new byte[16];
+        private int size = 0;
+        
+        // Each slot holds the index of an entry plus one, or 0 if it is empty
+        private int[] slots = new int[32];
+        
+        private void record(long chunk, int key, MetadataChangeType type, BlockFace direction)
+        {
+            int slot = find(chunk, key);
+            int index = slots[slot] - 1;
+            if(index == -1)
+            {
+                if(size == types.length)
+                {
+                    grow(size * 2);
+                    slot = find(chunk, key);
+                }
+                index = size++;
+                slots[slot] = index + 1;
+                chunks[index] = chunk;
+                keys[index] = key;
+            }
+            types[index] = (byte) type.ordinal();
+            directions[index] = direction == null ? -1 : (byte) direction.ordinal();
+        }
+        
+        private int find(long chunk, int key)
+        {
+            int mask = slots.length - 1;
+            long hash = (chunk * 0x9E3779B97F4A7C15L) ^ (key * 0xC2B2AE35L);
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while(slots[slot] != 0)
+            {
+                int index = slots[slot] - 1;
+                if(chunks[index] == chunk && keys[index] == key)
+                {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+        
+        private void grow(int capacity)
+        {
+            types = Arrays.copyOf(types, capacity);
+            chunks = Arrays.copyOf(chunks, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            directions = Arrays.copyOf(directions, capacity);
+            slots = new int[capacity * 2];
+            for(int i = 0; i < size; i++)
+            {
+                slots[find(chunks[i], keys[i])] = i + 1;
+            }
+        }
+        
+        private void clear()
+        {
+            if(size != 0)
+            {
+                Arrays.fill(slots, 0);
+                size = 0;
+            }
+        }
+    }
+}
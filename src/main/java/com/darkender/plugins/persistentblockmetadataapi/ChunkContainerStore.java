@@ -0,0 +1,185 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Chunk;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.entity.AreaEffectCloud;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataHolder;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Stores block metadata directly in each chunk's own PersistentDataContainer, on servers where chunks have one
+ * Uses the same keys as the clouds so chunks that still have a cloud are migrated by copying them the first time they load
+ */
+final class ChunkContainerStore implements MetadataStore
+{
+    private final NamespacedKey countKey;
+    private final NamespacedKey packedKey;
+    private final BlockKeyCache keyCache;
+    private final String prefix;
+    
+    ChunkContainerStore(Plugin plugin, BlockKeyCache keyCache)
+    {
+        this.countKey = new NamespacedKey(plugin, "metacount");
+        this.packedKey = new NamespacedKey(plugin, "packed");
+        this.keyCache = keyCache;
+        this.prefix = countKey.getNamespace() + ":";
+    }
+    
+    /**
+     * Checks if the server's chunks have their own PersistentDataContainer
+     * @return true if this store can be used
+     */
+    static boolean isSupported()
+    {
+        // Compiled against an API where chunks have no container, so the running server's Chunk interface is checked instead
+        return PersistentDataHolder.class.isAssignableFrom(Chunk.class);
+    }
+    
+    private static PersistentDataContainer containerOf(Chunk chunk)
+    {
+        return ((PersistentDataHolder) chunk).getPersistentDataContainer();
+    }
+    
+    @Override
+    public StoredChunk load(@NotNull Chunk chunk)
+    {
+        PersistentDataContainer container = containerOf(chunk);
+        if(!container.has(countKey, PersistentDataType.INTEGER))
+        {
+            AreaEffectCloud cloud = CloudStore.findCloud(chunk, countKey);
+            if(cloud == null)
+            {
+                return null;
+            }
+            CloudStore.migrate(cloud, container, keyCache, countKey, packedKey);
+        }
+        return new ContainerChunk(container);
+    }
+    
+    @Override
+    public @NotNull StoredChunk create(@NotNull World world, int chunkX, int chunkZ)
+    {
+        return new ContainerChunk(containerOf(world.getChunkAt(chunkX, chunkZ)));
+    }
+    
+    @Override
+    public void save(@NotNull World world)
+    {
+        // Chunk containers are saved with their chunks
+    }
+    
+    @Override
+    public void close()
+    {
+        // Chunk containers are saved with their chunks
+    }
+    
+    private final class ContainerChunk implements StoredChunk
+    {
+        private final PersistentDataContainer container;
+        
+        private ContainerChunk(PersistentDataContainer container)
+        {
+            this.container = container;
+        }
+        
+        @Override
+        public @NotNull PersistentDataContainer newContainer()
+        {
+            return container.getAdapterContext().newPersistentDataContainer();
+        }
+        
+        @Override
+        public PersistentDataContainer get(int key)
+        {
+            return container.get(keyCache.get(key), PersistentDataType.TAG_CONTAINER);
+        }
+        
+        @Override
+        public void set(int key, @NotNull PersistentDataContainer value)
+        {
+            container.set(keyCache.get(key), PersistentDataType.TAG_CONTAINER, value);
+        }
+        
+        @Override
+        public void remove(int key)
+        {
+            container.remove(keyCache.get(key));
+        }
+        
+        @Override
+        public void forEach(@NotNull EntryVisitor visitor)
+        {
+            // The chunk's container is shared with other plugins so only this plugin's keys are read
+            for(String key : PersistentBlockMetadataAPI.getKeys(container))
+            {
+                long parsed = key.startsWith(prefix) ? BlockKey.parse(key) : BlockKey.INVALID;
+                if(parsed != BlockKey.INVALID)
+                {
+                    PersistentDataContainer value = container.get(keyCache.get((int) parsed), PersistentDataType.TAG_CONTAINER);
+                    if(value != null)
+                    {
+                        visitor.visit((int) parsed, value);
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public PersistentDataContainer getPacked()
+        {
+            return container.get(packedKey, PersistentDataType.TAG_CONTAINER);
+        }
+        
+        @Override
+        public void setPacked(PersistentDataContainer packed)
+        {
+            if(packed == null)
+            {
+                container.remove(packedKey);
+            }
+            else
+            {
+                container.set(packedKey, PersistentDataType.TAG_CONTAINER, packed);
+            }
+        }
+        
+        @Override
+        public int getCount()
+        {
+            return container.getOrDefault(countKey, PersistentDataType.INTEGER, -1);
+        }
+        
+        @Override
+        public void save(int count)
+        {
+            container.set(countKey, PersistentDataType.INTEGER, count);
+        }
+        
+        @Override
+        public void unload()
+        {
+            // Chunk containers are saved with their chunks
+        }
+        
+        @Override
+        public void delete()
+        {
+            // Removals may not have been saved yet, so every block key of this plugin is removed
+            for(String key : PersistentBlockMetadataAPI.getKeys(container).toArray(new String[0]))
+            {
+                long parsed = key.startsWith(prefix) ? BlockKey.parse(key) : BlockKey.INVALID;
+                if(parsed != BlockKey.INVALID)
+                {
+                    container.remove(keyCache.get((int) parsed));
+                }
+            }
+            container.remove(packedKey);
+            container.remove(countKey);
+        }
+    }
+}
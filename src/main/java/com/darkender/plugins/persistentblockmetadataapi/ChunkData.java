@@ -0,0 +1,491 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.World;
+import org.bukkit.persistence.PersistentDataContainer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The decoded metadata of a loaded chunk and the storage it is written back to
+ * Changes are tracked per block so a flush only touches what was modified
+ * Changes happen on the main thread; other threads may only check for and get entries, and check which blocks have
+ * packed values. The tables holding the values are only read on the main thread
+ */
+final class ChunkData
+{
+    private final World world;
+    private final int x;
+    private final int z;
+    private final StoredChunk stored;
+    private final IntObjectMap<PersistentDataContainer> entries = new IntObjectMap<>();
+    private final IntObjectMap<Boolean> dirty = new IntObjectMap<>();
+    
+    // One bit per block column so blocks without metadata are usually ruled out without probing the map
+    // Blocks with only packed values count as well, so the bit covers everything a block can have
+    private final long[] columns = new long[4];
+    private final short[] columnCounts = new short[256];
+    private int tracked = 0;
+    private boolean typeCheckPending = false;
+    
+    // Keys of every tracked block sorted by y, then z, then x so spatial queries can binary search the layers they cover
+    // Keys loaded from storage are appended and sorted once when the index is first queried
+    private int[] index = new int[8];
+    private int indexSize = 0;
+    private boolean indexSorted = true;
+    
+    // The stored packed columns are kept so tables are written back into the same container
+    // Blocks with a row in any table are kept in a set of their own so other threads can look them up
+    private PersistentDataContainer packed = null;
+    private Map<String, PackedTable> packedTables = null;
+    private final ConcurrentIntSet packedKeys = new ConcurrentIntSet();
+    private boolean packedDirty = false;
+    
+    ChunkData(World world, int x, int z, StoredChunk stored)
+    {
+        this.world = world;
+        this.x = x;
+        this.z = z;
+        this.stored = stored;
+    }
+    
+    World getWorld()
+    {
+        return world;
+    }
+    
+    int getX()
+    {
+        return x;
+    }
+    
+    int getZ()
+    {
+        return z;
+    }
+    
+    long getKey()
+    {
+        return ChunkRegistry.chunkKey(x, z);
+    }
+    
+    StoredChunk getStored()
+    {
+        return stored;
+    }
+    
+    /**
+     * Checks if the chunk still has to be checked by the LoadUnloadTypeChecker since it loaded
+     * @return true if the type check is still queued
+     */
+    boolean isTypeCheckPending()
+    {
+        return typeCheckPending;
+    }
+    
+    void setTypeCheckPending(boolean typeCheckPending)
+    {
+        this.typeCheckPending = typeCheckPending;
+    }
+    
+    IntObjectMap<PersistentDataContainer> getEntries()
+    {
+        return entries;
+    }
+    
+    /**
+     * Checks if a block has a container or a packed value
+     * @param key the packed block key
+     * @return true if the block has either
+     */
+    boolean has(int key)
+    {
+        return hasColumn(key) && (entries.containsKey(key) || hasPacked(key));
+    }
+    
+    PersistentDataContainer get(int key)
+    {
+        return hasColumn(key) ? entries.get(key) : null;
+    }
+    
+    /**
+     * Checks if any block in the column of a key might have metadata
+     * @param key the packed block key
+     * @return false if no block in the column has metadata
+     */
+    boolean hasColumn(int key)
+    {
+        int column = key & 255;
+        return (columns[column >> 6] & (1L << column)) != 0;
+    }
+    
+    /**
+     * Gets the sorted block keys; only the first {@link #indexSize()} are valid
+     * @return the index
+     */
+    int[] index()
+    {
+        if(!indexSorted)
+        {
+            Arrays.sort(index, 0, indexSize);
+            indexSorted = true;
+        }
+        return index;
+    }
+    
+    int indexSize()
+    {
+        return indexSize;
+    }
+    
+    /**
+     * Finds the first position in the index with a key not less than the given key
+     * @param key the packed block key
+     * @return the position, which is {@link #indexSize()} if every key is less
+     */
+    int indexFrom(int key)
+    {
+        int position = Arrays.binarySearch(index(), 0, indexSize, key);
+        return position < 0 ? -position - 1 : position;
+    }
+    
+    private void addToIndex(int key, boolean sorted)
+    {
+        if(indexSize == index.length)
+        {
+            index = Arrays.copyOf(index, indexSize * 2);
+        }
+        if(sorted && indexSorted)
+        {
+            int position = indexFrom(key);
+            System.arraycopy(index, position, index, position + 1, indexSize - position);
+            index[position] = key;
+        }
+        else
+        {
+            index[indexSize] = key;
+            indexSorted = false;
+        }
+        indexSize++;
+    }
+    
+    private void removeFromIndex(int key)
+    {
+        int position = indexFrom(key);
+        System.arraycopy(index, position + 1, index, position, indexSize - position - 1);
+        indexSize--;
+    }
+    
+    /**
+     * Starts tracking a block that got its first container or packed value
+     * @param key the packed block key
+     * @param sorted false if the key is read from storage and may be appended to the index unsorted
+     */
+    private void track(int key, boolean sorted)
+    {
+        int column = key & 255;
+        if(columnCounts[column]++ == 0)
+        {
+            columns[column >> 6] |= 1L << column;
+        }
+        tracked++;
+        addToIndex(key, sorted);
+    }
+    
+    private void untrack(int key)
+    {
+        int column = key & 255;
+        if(--columnCounts[column] == 0)
+        {
+            columns[column >> 6] &= ~(1L << column);
+        }
+        tracked--;
+        removeFromIndex(key);
+    }
+    
+    /**
+     * Gets how many blocks have a container
+     * @return the amount of containers
+     */
+    int size()
+    {
+        return entries.size();
+    }
+    
+    /**
+     * Gets how many blocks have a container, packed values or both
+     * @return the amount of blocks with metadata
+     */
+    int trackedSize()
+    {
+        return tracked;
+    }
+    
+    /**
+     * Checks if no block in the chunk has metadata or packed values
+     * @return true if there is nothing left to store
+     */
+    boolean isEmpty()
+    {
+        return tracked == 0;
+    }
+    
+    /**
+     * Gets the packed columns as stored when the tables were last written
+     * @return the stored columns or {@code null} if there are none
+     */
+    PersistentDataContainer getPacked()
+    {
+        return packed;
+    }
+    
+    void setPacked(PersistentDataContainer packed)
+    {
+        this.packed = packed;
+    }
+    
+    PackedTable getPackedTable(String name)
+    {
+        return packedTables == null ? null : packedTables.get(name);
+    }
+    
+    /**
+     * Adds a table read from storage or created for a codec
+     * @param name the name of the table's codec
+     * @param table the table, which the chunk has no other table of that name for
+     */
+    void putPackedTable(String name, PackedTable table)
+    {
+        if(packedTables == null)
+        {
+            packedTables = new HashMap<>();
+        }
+        for(int i = 0; i < table.size(); i++)
+        {
+            if(!isTracked(table.keyAt(i)))
+            {
+                track(table.keyAt(i), false);
+            }
+            packedKeys.add(table.keyAt(i));
+        }
+        packedTables.put(name, table);
+    }
+    
+    Map<String, PackedTable> getPackedTables()
+    {
+        return packedTables;
+    }
+    
+    private boolean isTracked(int key)
+    {
+        return entries.containsKey(key) || hasPacked(key);
+    }
+    
+    /**
+     * Checks if a block has a row in any packed table
+     * May be called from any thread
+     * @param key the packed block key
+     * @return true if the block has a packed value
+     */
+    boolean hasPacked(int key)
+    {
+        return packedKeys.contains(key);
+    }
+    
+    private boolean inAnyTable(int key)
+    {
+        if(packedTables != null)
+        {
+            for(PackedTable table : packedTables.values())
+            {
+                if(table.indexOf(key) >= 0)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Gets the row of a block in one of the chunk's tables, inserting a zeroed row if it has none
+     * The table is marked as changed since the row is about to be written
+     * @param table the table
+     * @param key the packed block key
+     * @return the row
+     */
+    int insertPacked(PackedTable table, int key)
+    {
+        boolean wasTracked = isTracked(key);
+        int index = table.insert(key);
+        if(!wasTracked)
+        {
+            track(key, true);
+        }
+        packedKeys.add(key);
+        packedDirty = true;
+        return index;
+    }
+    
+    /**
+     * Removes the row of a block from one of the chunk's tables
+     * @param table the table
+     * @param key the packed block key
+     * @return true if the block had a row
+     */
+    boolean removePacked(PackedTable table, int key)
+    {
+        if(!table.remove(key))
+        {
+            return false;
+        }
+        if(!inAnyTable(key))
+        {
+            packedKeys.remove(key);
+        }
+        if(!isTracked(key))
+        {
+            untrack(key);
+        }
+        packedDirty = true;
+        return true;
+    }
+    
+    /**
+     * Removes the rows of a block from every table
+     * @param key the packed block key
+     * @return true if the block had a row
+     */
+    boolean removePacked(int key)
+    {
+        return liftPacked(key) != null;
+    }
+    
+    /**
+     * Removes the rows of a block from every table so they can be placed on another block
+     * @param key the packed block key
+     * @return each removed row as a table of one row by the name of its table, or {@code null} if the block had none
+     */
+    Map<String, PackedTable> liftPacked(int key)
+    {
+        if(!hasColumn(key) || !hasPacked(key))
+        {
+            return null;
+        }
+        Map<String, PackedTable> rows = new HashMap<>();
+        for(Map.Entry<String, PackedTable> entry : packedTables.entrySet())
+        {
+            PackedTable table = entry.getValue();
+            int index = table.indexOf(key);
+            if(index >= 0)
+            {
+                PackedTable row = table.emptyCopy();
+                table.copyRow(index, row, row.insert(key));
+                removePacked(table, key);
+                rows.put(entry.getKey(), row);
+            }
+        }
+        return rows;
+    }
+    
+    /**
+     * Places rows removed by {@link #liftPacked(int)} on a block, replacing the rows it has in those tables
+     * @param key the packed block key
+     * @param rows the rows by the name of their table
+     */
+    void placePacked(int key, Map<String, PackedTable> rows)
+    {
+        for(Map.Entry<String, PackedTable> entry : rows.entrySet())
+        {
+            PackedTable table = getPackedTable(entry.getKey());
+            if(table == null)
+            {
+                table = entry.getValue().emptyCopy();
+                putPackedTable(entry.getKey(), table);
+            }
+            entry.getValue().copyRow(0, table, insertPacked(table, key));
+        }
+    }
+    
+    boolean isPackedDirty()
+    {
+        return packedDirty;
+    }
+    
+    void clearPackedDirty()
+    {
+        packedDirty = false;
+    }
+    
+    /**
+     * Loads an entry read from storage without marking it as changed
+     * @param key the packed block key
+     * @param value the stored container
+     */
+    void load(int key, PersistentDataContainer value)
+    {
+        if(entries.put(key, value) == null)
+        {
+            if(!hasPacked(key))
+            {
+                track(key, false);
+            }
+        }
+    }
+    
+    void put(int key, PersistentDataContainer value)
+    {
+        if(entries.put(key, value) == null)
+        {
+            if(!hasPacked(key))
+            {
+                track(key, true);
+            }
+        }
+        dirty.put(key, Boolean.TRUE);
+    }
+    
+    /**
+     * Removes an entry, leaving the block's packed values
+     * @param key the packed block key
+     * @return true if there was an entry to remove
+     */
+    boolean remove(int key)
+    {
+        if(!hasColumn(key) || entries.remove(key) == null)
+        {
+            return false;
+        }
+        if(!hasPacked(key))
+        {
+            untrack(key);
+        }
+        dirty.put(key, Boolean.FALSE);
+        return true;
+    }
+    
+    /**
+     * Marks an entry as changed, for example when its container has been handed out and may be modified
+     * @param key the packed block key
+     */
+    void markDirty(int key)
+    {
+        dirty.put(key, entries.containsKey(key));
+    }
+    
+    boolean isDirty()
+    {
+        return !dirty.isEmpty() || packedDirty;
+    }
+    
+    /**
+     * Visits the changes since the last flush and resets them
+     * @param visitor called with each changed key and true if the entry should be written or false if it should be removed
+     */
+    void drainDirty(IntObjectMap.Visitor<Boolean> visitor)
+    {
+        dirty.forEach(visitor);
+        dirty.clear();
+    }
+}
@@ -0,0 +1,217 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A persistent list per world of the chunks that have metadata and how many blocks in each have it
+ * Kept up to date as chunks are written back and saved next to the world, so tagged chunks are known without loading them.
+ * An index is only trusted to be complete if it was started in a new world or marked complete, and was last saved when
+ * the plugin was disabled; after a crash the chunks changed since the last save may be missing until they load again
+ */
+final class ChunkIndex
+{
+    private static final int VERSION = 1;
+    
+    private final String folderName;
+    private final Map<UUID, WorldIndex> worlds = new HashMap<>();
+    
+    ChunkIndex(Plugin plugin)
+    {
+        this.folderName = plugin.getName().toLowerCase(Locale.ROOT);
+    }
+    
+    private static final class WorldIndex
+    {
+        private final Path path;
+        private final Map<Long, Integer> counts = new HashMap<>();
+        private boolean complete = false;
+        private boolean dirty = false;
+        
+        private WorldIndex(Path path)
+        {
+            this.path = path;
+        }
+    }
+    
+    /**
+     * Gets the index of a world, reading it from disk the first time
+     * @param world the world
+     * @return the world's index
+     */
+    private WorldIndex indexOf(World world)
+    {
+        WorldIndex index = worlds.get(world.getUID());
+        if(index != null)
+        {
+            return index;
+        }
+        index = new WorldIndex(world.getWorldFolder().toPath().resolve("blockmetadata").resolve(folderName).resolve("index.dat"));
+        worlds.put(world.getUID(), index);
+        if(!Files.exists(index.path))
+        {
+            // A world without saved chunks can't have stored metadata yet, so its index starts out complete
+            index.complete = !hasSavedChunks(world.getWorldFolder().toPath());
+            return index;
+        }
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index.path))))
+        {
+            if(in.readInt() != VERSION)
+            {
+                throw new IOException("Unknown index version");
+            }
+            boolean complete = in.readBoolean();
+            int size = ContainerCodec.readVarInt(in);
+            for(int i = 0; i < size; i++)
+            {
+                long key = in.readLong();
+                index.counts.put(key, ContainerCodec.readVarInt(in));
+            }
+            index.complete = complete;
+            
+            // Marked incomplete on disk until the next clean save, so a crash before then isn't trusted
+            if(complete)
+            {
+                write(index, false);
+            }
+        }
+        catch(IOException e)
+        {
+            Bukkit.getLogger().warning("Failed to read the block metadata index of " + world.getName());
+            e.printStackTrace();
+            index.counts.clear();
+            index.complete = false;
+        }
+        return index;
+    }
+    
+    private static boolean hasSavedChunks(Path worldFolder)
+    {
+        for(String folder : new String[] {"region", "DIM-1/region", "DIM1/region"})
+        {
+            Path regions = worldFolder.resolve(folder);
+            if(!Files.isDirectory(regions))
+            {
+                continue;
+            }
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(regions, "*.mca"))
+            {
+                if(files.iterator().hasNext())
+                {
+                    return true;
+                }
+            }
+            catch(IOException e)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Checks if every chunk of a world with metadata is in the index
+     * @param world the world
+     * @return true if the index can be used instead of searching chunks for metadata
+     */
+    boolean isComplete(World world)
+    {
+        return indexOf(world).complete;
+    }
+    
+    void setComplete(World world)
+    {
+        indexOf(world).complete = true;
+    }
+    
+    /**
+     * Records how many blocks in a chunk have metadata
+     * @param world the world the chunk is in
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @param count the amount of blocks with a container or packed values, or 0 to remove the chunk from the index
+     */
+    void update(World world, int chunkX, int chunkZ, int count)
+    {
+        WorldIndex index = indexOf(world);
+        long key = ChunkRegistry.chunkKey(chunkX, chunkZ);
+        Integer previous = count == 0 ? index.counts.remove(key) : index.counts.put(key, count);
+        if(previous == null ? count != 0 : previous != count)
+        {
+            index.dirty = true;
+        }
+    }
+    
+    void forEach(World world, TaggedChunkVisitor visitor)
+    {
+        // Copied so visitors may load chunks, which changes the index
+        for(Map.Entry<Long, Integer> entry : new HashMap<>(indexOf(world).counts).entrySet())
+        {
+            long key = entry.getKey();
+            visitor.visit((int) (key >> 32), (int) key, entry.getValue());
+        }
+    }
+    
+    /**
+     * Writes the index of a world if it changed
+     * @param world the world that is saving
+     */
+    void save(World world)
+    {
+        WorldIndex index = worlds.get(world.getUID());
+        if(index != null && index.dirty)
+        {
+            write(index, false);
+        }
+    }
+    
+    /**
+     * Writes every index, keeping those that are complete marked as complete
+     */
+    void close()
+    {
+        for(WorldIndex index : worlds.values())
+        {
+            write(index, index.complete);
+        }
+    }
+    
+    private static void write(WorldIndex index, boolean complete)
+    {
+        // Written next to the old index and moved over it so a crash never leaves half of an index
+        Path temp = index.path.resolveSibling("index.dat.tmp");
+        try
+        {
+            Files.createDirectories(index.path.getParent());
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                out.writeInt(VERSION);
+                out.writeBoolean(complete);
+                ContainerCodec.writeVarInt(out, index.counts.size());
+                for(Map.Entry<Long, Integer> entry : index.counts.entrySet())
+                {
+                    out.writeLong(entry.getKey());
+                    ContainerCodec.writeVarInt(out, entry.getValue());
+                }
+            }
+            Files.move(temp, index.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            index.dirty = false;
+        }
+        catch(IOException e)
+        {
+            Bukkit.getLogger().warning("Failed to save the block metadata index");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.World;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds loaded chunks whose storage was opened but not decoded yet, in the order they loaded
+ * Chunks can be taken out of order when they are needed before their turn
+ * Modified only on the main thread; other threads may only check if a chunk is queued
+ */
+final class ChunkIngestQueue
+{
+    private final Map<UUID, ConcurrentLongObjectMap<ChunkData>> pending = new ConcurrentHashMap<>();
+    private final ArrayDeque<ChunkData> order = new ArrayDeque<>();
+    private int size = 0;
+    
+    void add(ChunkData chunkData)
+    {
+        pending.computeIfAbsent(chunkData.getWorld().getUID(), id -> new ConcurrentLongObjectMap<>())
+                .put(chunkData.getKey(), chunkData);
+        order.add(chunkData);
+        size++;
+    }
+    
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+    
+    int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Takes a chunk out of the queue ahead of its turn
+     * @param world the world the chunk is in
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return the queued chunk or {@code null} if it is not queued
+     */
+    ChunkData take(World world, int chunkX, int chunkZ)
+    {
+        ConcurrentLongObjectMap<ChunkData> chunks = pending.get(world.getUID());
+        if(chunks == null)
+        {
+            return null;
+        }
+        ChunkData chunkData = chunks.remove(ChunkRegistry.chunkKey(chunkX, chunkZ));
+        if(chunkData != null)
+        {
+            // It stays in the order queue and is skipped when its turn comes
+            size--;
+        }
+        return chunkData;
+    }
+    
+    /**
+     * Takes every queued chunk of a world out of the queue ahead of its turn
+     * @param world the world the chunks are in
+     * @return the queued chunks
+     */
+    List<ChunkData> take(World world)
+    {
+        ConcurrentLongObjectMap<ChunkData> chunks = pending.get(world.getUID());
+        List<ChunkData> taken = new ArrayList<>();
+        if(chunks != null)
+        {
+            for(ChunkData chunkData : chunks.values())
+            {
+                if(chunks.remove(chunkData.getKey(), chunkData))
+                {
+                    size--;
+                    taken.add(chunkData);
+                }
+            }
+        }
+        return taken;
+    }
+    
+    /**
+     * Takes the chunk that has been queued the longest
+     * @return the chunk or {@code null} if the queue is empty
+     */
+    ChunkData poll()
+    {
+        ChunkData chunkData;
+        while((chunkData = order.poll()) != null)
+        {
+            ConcurrentLongObjectMap<ChunkData> chunks = pending.get(chunkData.getWorld().getUID());
+            if(chunks != null && chunks.remove(chunkData.getKey(), chunkData))
+            {
+                size--;
+                return chunkData;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,95 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.World;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Tracks the loaded chunks with metadata
+ * Striped per world and keyed by packed chunk coordinates so lookups never need a Chunk object
+ */
+final class ChunkRegistry
+{
+    private final Map<UUID, ConcurrentLongObjectMap<ChunkData>> worlds = new ConcurrentHashMap<>();
+    
+    /**
+     * Packs chunk coordinates into a single key
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return the packed key
+     */
+    static long chunkKey(int chunkX, int chunkZ)
+    {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Gets the metadata of a loaded chunk
+     * @param world the world the chunk is in
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return the chunk's metadata or {@code null} if the chunk has none
+     */
+    ChunkData get(World world, int chunkX, int chunkZ)
+    {
+        ConcurrentLongObjectMap<ChunkData> chunks = worlds.get(world.getUID());
+        return chunks == null ? null : chunks.get(chunkKey(chunkX, chunkZ));
+    }
+    
+    void put(ChunkData chunkData)
+    {
+        worlds.computeIfAbsent(chunkData.getWorld().getUID(), id -> new ConcurrentLongObjectMap<>())
+                .put(chunkData.getKey(), chunkData);
+    }
+    
+    /**
+     * Removes the metadata of a chunk if it is still the registered instance
+     * @param chunkData the chunk's metadata
+     * @return true if it was removed
+     */
+    boolean remove(ChunkData chunkData)
+    {
+        ConcurrentLongObjectMap<ChunkData> chunks = worlds.get(chunkData.getWorld().getUID());
+        return chunks != null && chunks.remove(chunkData.getKey(), chunkData);
+    }
+    
+    /**
+     * Counts the loaded chunks with metadata in a world
+     * @param worldID the UUID of the world
+     * @return the amount of chunks
+     */
+    int size(UUID worldID)
+    {
+        ConcurrentLongObjectMap<ChunkData> chunks = worlds.get(worldID);
+        return chunks == null ? 0 : chunks.size();
+    }
+    
+    /**
+     * Visits every loaded chunk in a world
+     * @param worldID the UUID of the world
+     * @param consumer called with the metadata of each chunk
+     */
+    void forEach(UUID worldID, Consumer<ChunkData> consumer)
+    {
+        ConcurrentLongObjectMap<ChunkData> chunks = worlds.get(worldID);
+        if(chunks != null)
+        {
+            chunks.values().forEach(consumer);
+        }
+    }
+    
+    /**
+     * Visits every loaded chunk in every world
+     * @param consumer called with the metadata of each chunk
+     */
+    void forEach(Consumer<ChunkData> consumer)
+    {
+        for(ConcurrentLongObjectMap<ChunkData> chunks : worlds.values())
+        {
+            chunks.values().forEach(consumer);
+        }
+    }
+}
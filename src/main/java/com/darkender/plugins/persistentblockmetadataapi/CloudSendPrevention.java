@@ -8,20 +8,26 @@ import com.comphenix.protocol.events.PacketAdapter;
 import com.comphenix.protocol.events.PacketEvent;
 import org.bukkit.plugin.Plugin;
 
+import java.util.function.IntPredicate;
+
 public class CloudSendPrevention
 {
     public static void onReady(Plugin plugin, PersistentBlockMetadataAPI persistentBlockMetadataAPI)
     {
+        onReady(plugin, persistentBlockMetadataAPI::isHidden);
+    }
+    
+    static void onReady(Plugin plugin, IntPredicate hidden)
+    {
+        // Only the spawn packet is filtered: clients ignore metadata, movement and velocity packets for entities
+        // they never spawned, so the other entity packets don't have to be inspected at all
         ProtocolManager protocolManager = ProtocolLibrary.getProtocolManager();
-        protocolManager.addPacketListener(new PacketAdapter(plugin, ListenerPriority.NORMAL,
-                PacketType.Play.Server.SPAWN_ENTITY, PacketType.Play.Server.ENTITY_METADATA, PacketType.Play.Server.ENTITY_VELOCITY,
-                PacketType.Play.Server.ENTITY_HEAD_ROTATION, PacketType.Play.Server.ENTITY_TELEPORT, PacketType.Play.Server.REL_ENTITY_MOVE)
+        protocolManager.addPacketListener(new PacketAdapter(plugin, ListenerPriority.NORMAL, PacketType.Play.Server.SPAWN_ENTITY)
         {
             @Override
             public void onPacketSending(PacketEvent event)
             {
-                int entityID = event.getPacket().getIntegers().read(0);
-                if(persistentBlockMetadataAPI.isHidden(entityID, event.getPlayer().getWorld().getUID()))
+                if(hidden.test(event.getPacket().getIntegers().read(0)))
                 {
                     event.setCancelled(true);
                 }
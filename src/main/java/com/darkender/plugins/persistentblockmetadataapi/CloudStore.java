@@ -0,0 +1,781 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.*;
+import org.bukkit.entity.AreaEffectCloud;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginEnableEvent;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.ServicePriority;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores the metadata of each chunk on an AreaEffectCloud in the chunk so it is saved together with the chunk
+ * Clouds are kept alive, reconstructed when they die and optionally hidden from clients
+ * Each plugin reads and writes through its own {@link View}; a shared store holds the views of several plugins,
+ * which then use one cloud per chunk, one keepalive task and one packet listener between them
+ */
+final class CloudStore implements Listener
+{
+    // Clouds expire 60 seconds after their last top off, so each one is visited every 30 seconds
+    private static final int CLOUD_DURATION = 60 * 20;
+    private static final int KEEPALIVE_INTERVAL = CLOUD_DURATION / 2;
+    
+    // Marks shared clouds; the namespace doesn't belong to any plugin so the mark stays the same whichever plugin hosts the store
+    @SuppressWarnings("deprecation")
+    private static final NamespacedKey SHARED_KEY = new NamespacedKey("persistentblockmetadataapi", "shared");
+    
+    private final NamespacedKey markerKey;
+    private final boolean shared;
+    private boolean attemptReconstruction;
+    private final boolean preventSending;
+    private boolean sendPreventionReady = false;
+    // Entity ids are unique across worlds, so one set covers every world
+    private final ConcurrentIntSet hiddenIDs = new ConcurrentIntSet();
+    private final KeepaliveScheduler<ChunkCloud> keepalive = new KeepaliveScheduler<>(KEEPALIVE_INTERVAL, 256, this::keepAlive);
+    private final Map<UUID, Map<Long, ChunkCloud>> opened = new HashMap<>();
+    private final List<View> views = new ArrayList<>();
+    private Plugin owner;
+    
+    // Read by statistics from any thread; packets are counted on the netty threads
+    private final LongAdder keepalivePasses = new LongAdder();
+    private final LongAdder keepaliveNanos = new LongAdder();
+    private final LongAdder reconstructions = new LongAdder();
+    private final LongAdder packetsInspected = new LongAdder();
+    private final LongAdder packetsDropped = new LongAdder();
+    private volatile int loadedClouds = 0;
+    private final WarningLimiter deadWarnings = new WarningLimiter(TimeUnit.MINUTES.toNanos(1));
+    
+    // Every view opens a loading chunk in the same tick, so the last search is reused for the views that follow
+    private ChunkCloud lastSearch = null;
+    private long lastSearchTick = -1;
+    
+    private CloudStore(Plugin owner, boolean attemptReconstruction, boolean preventSending, boolean shared)
+    {
+        this.markerKey = shared ? SHARED_KEY : new NamespacedKey(owner, "metacount");
+        this.shared = shared;
+        this.attemptReconstruction = attemptReconstruction;
+        this.preventSending = preventSending;
+        start(owner);
+    }
+    
+    /**
+     * Creates a store used by a single plugin, whose clouds are marked with that plugin's metacount key
+     * @param plugin the plugin using the store
+     * @param attemptReconstruction if clouds should be reconstructed when they die
+     * @param preventSending if clouds should be hidden from clients
+     * @return the store
+     */
+    static CloudStore standalone(Plugin plugin, boolean attemptReconstruction, boolean preventSending)
+    {
+        return new CloudStore(plugin, attemptReconstruction, preventSending, false);
+    }
+    
+    /**
+     * Gets the store shared by every plugin using shared mode, creating it if no enabled plugin is using it yet
+     * The settings only apply when the store is created; later plugins use the settings it was created with
+     * @param plugin the plugin that will use the store
+     * @param attemptReconstruction if clouds should be reconstructed when they die
+     * @param preventSending if clouds should be hidden from clients
+     * @return the store
+     */
+    static CloudStore shared(Plugin plugin, boolean attemptReconstruction, boolean preventSending)
+    {
+        // Plugins that shade the API each have their own copy of this class and so find their own store
+        CloudStore store = plugin.getServer().getServicesManager().load(CloudStore.class);
+        return store != null ? store : new CloudStore(plugin, attemptReconstruction, preventSending, true);
+    }
+    
+    /**
+     * Runs the keepalive task and packet listener as a plugin and registers the store with it
+     * @param owner the plugin to run as, which has to be enabled
+     */
+    private void start(Plugin owner)
+    {
+        this.owner = owner;
+        owner.getServer().getScheduler().runTaskTimer(owner, this::tickKeepalive, 1L, 1L);
+        owner.getServer().getPluginManager().registerEvents(this, owner);
+        sendPreventionReady = false;
+        if(preventSending && owner.getServer().getPluginManager().isPluginEnabled("ProtocolLib"))
+        {
+            CloudSendPrevention.onReady(owner, this::shouldDrop);
+            sendPreventionReady = true;
+        }
+        if(shared)
+        {
+            owner.getServer().getServicesManager().register(CloudStore.class, this, owner, ServicePriority.Normal);
+        }
+    }
+    
+    /**
+     * Opens a plugin's view of the store
+     * @param plugin the plugin whose metadata the view reads and writes
+     * @param keyCache the block keys of the plugin
+     * @return the view
+     */
+    View view(Plugin plugin, BlockKeyCache keyCache)
+    {
+        View view = new View(plugin, keyCache);
+        views.add(view);
+        return view;
+    }
+    
+    /**
+     * Called when a view is closed, which happens while its plugin is being disabled
+     * The clouds the view still has open are released, and the owner's task and listeners are cancelled with it,
+     * so they are started again as a plugin whose view is still open
+     * @param view the closed view
+     */
+    private void close(View view)
+    {
+        views.remove(view);
+        for(View.CloudChunk chunk : view.acquired)
+        {
+            release(chunk.chunkCloud);
+        }
+        view.acquired.clear();
+        if(view.plugin != owner)
+        {
+            return;
+        }
+        for(View remaining : views)
+        {
+            if(remaining.plugin != owner)
+            {
+                start(remaining.plugin);
+                return;
+            }
+        }
+        if(views.isEmpty() && shared)
+        {
+            owner.getServer().getServicesManager().unregister(CloudStore.class, this);
+        }
+    }
+    
+    boolean shouldAttemptReconstruction()
+    {
+        return attemptReconstruction;
+    }
+    
+    void setAttemptReconstruction(boolean attemptReconstruction)
+    {
+        this.attemptReconstruction = attemptReconstruction;
+    }
+    
+    int getKeepaliveBudget()
+    {
+        return keepalive.getBudget();
+    }
+    
+    void setKeepaliveBudget(int keepaliveBudget)
+    {
+        keepalive.setBudget(keepaliveBudget);
+    }
+    
+    long getKeepalivePasses()
+    {
+        return keepalivePasses.sum();
+    }
+    
+    long getKeepaliveNanos()
+    {
+        return keepaliveNanos.sum();
+    }
+    
+    long getReconstructions()
+    {
+        return reconstructions.sum();
+    }
+    
+    long getPacketsInspected()
+    {
+        return packetsInspected.sum();
+    }
+    
+    long getPacketsDropped()
+    {
+        return packetsDropped.sum();
+    }
+    
+    int getLoadedClouds()
+    {
+        return loadedClouds;
+    }
+    
+    boolean isHidden(int id)
+    {
+        return hiddenIDs.contains(id);
+    }
+    
+    /**
+     * Checks an entity spawn packet for a hidden cloud, called by the packet listener
+     * @param id the id of the spawned entity
+     * @return true if the packet should be cancelled
+     */
+    private boolean shouldDrop(int id)
+    {
+        packetsInspected.increment();
+        if(hiddenIDs.contains(id))
+        {
+            packetsDropped.increment();
+            return true;
+        }
+        return false;
+    }
+    
+    private void hide(Entity entity)
+    {
+        hiddenIDs.add(entity.getEntityId());
+    }
+    
+    private void unhide(Entity entity)
+    {
+        hiddenIDs.remove(entity.getEntityId());
+    }
+    
+    /**
+     * Finds the cloud storing a chunk's metadata
+     * @param chunk the chunk to search
+     * @param countKey the metacount key of the plugin the cloud belongs to
+     * @return the cloud or {@code null} if the chunk has none
+     */
+    static AreaEffectCloud findCloud(Chunk chunk, NamespacedKey countKey)
+    {
+        for(Entity e : cloudsIn(chunk))
+        {
+            if(e.getPersistentDataContainer().has(countKey, PersistentDataType.INTEGER))
+            {
+                return (AreaEffectCloud) e;
+            }
+        }
+        return null;
+    }
+    
+    private static List<Entity> cloudsIn(Chunk chunk)
+    {
+        // The chunk's own entities are searched rather than the area around the cloud's spot: newer servers load
+        // entities after their chunk, and only getEntities waits for them during the chunk's load event
+        List<Entity> clouds = new ArrayList<>();
+        for(Entity entity : chunk.getEntities())
+        {
+            if(entity.getType() == EntityType.AREA_EFFECT_CLOUD && !entity.isDead())
+            {
+                clouds.add(entity);
+            }
+        }
+        return clouds;
+    }
+    
+    /**
+     * Moves the metadata of one plugin off a cloud into another container
+     * The cloud is removed once nothing but the shared mark is left on it
+     * @param cloud the cloud to migrate from
+     * @param container the container to migrate to
+     * @param keyCache the block keys of the plugin
+     * @param countKey the metacount key of the plugin
+     * @param packedKey the packed key of the plugin
+     */
+    static void migrate(AreaEffectCloud cloud, PersistentDataContainer container, BlockKeyCache keyCache,
+                        NamespacedKey countKey, NamespacedKey packedKey)
+    {
+        PersistentDataContainer old = cloud.getPersistentDataContainer();
+        String prefix = countKey.getNamespace() + ":";
+        for(String key : PersistentBlockMetadataAPI.getKeys(old).toArray(new String[0]))
+        {
+            long parsed = key.startsWith(prefix) ? BlockKey.parse(key) : BlockKey.INVALID;
+            if(parsed != BlockKey.INVALID)
+            {
+                NamespacedKey blockKey = keyCache.get((int) parsed);
+                PersistentDataContainer value = old.get(blockKey, PersistentDataType.TAG_CONTAINER);
+                if(value != null)
+                {
+                    container.set(blockKey, PersistentDataType.TAG_CONTAINER, value);
+                }
+                old.remove(blockKey);
+            }
+        }
+        PersistentDataContainer packed = old.get(packedKey, PersistentDataType.TAG_CONTAINER);
+        if(packed != null)
+        {
+            container.set(packedKey, PersistentDataType.TAG_CONTAINER, packed);
+            old.remove(packedKey);
+        }
+        container.set(countKey, PersistentDataType.INTEGER, old.getOrDefault(countKey, PersistentDataType.INTEGER, 0));
+        old.remove(countKey);
+        if(isUnused(old))
+        {
+            cloud.remove();
+        }
+    }
+    
+    private static boolean isUnused(PersistentDataContainer container)
+    {
+        Set<String> keys = PersistentBlockMetadataAPI.getKeys(container);
+        return keys.isEmpty() || (keys.size() == 1 && keys.contains(SHARED_KEY.toString()));
+    }
+    
+    /**
+     * Gets the cloud of a chunk, searching the chunk if no view has it open
+     * @param world the world the chunk is in
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return the chunk's cloud, which has no entity if the chunk has none
+     */
+    private ChunkCloud open(World world, int chunkX, int chunkZ)
+    {
+        Map<Long, ChunkCloud> worldClouds = opened.get(world.getUID());
+        ChunkCloud chunkCloud = worldClouds == null ? null : worldClouds.get(ChunkRegistry.chunkKey(chunkX, chunkZ));
+        if(chunkCloud != null)
+        {
+            return chunkCloud;
+        }
+        if(lastSearch != null && lastSearchTick == keepalive.getTick() && !lastSearch.closed &&
+                lastSearch.world == world && lastSearch.x == chunkX && lastSearch.z == chunkZ)
+        {
+            return lastSearch;
+        }
+        
+        chunkCloud = new ChunkCloud(world, chunkX, chunkZ);
+        for(Entity e : cloudsIn(world.getChunkAt(chunkX, chunkZ)))
+        {
+            if(e.getPersistentDataContainer().has(markerKey, PersistentDataType.INTEGER))
+            {
+                if(chunkCloud.cloud == null)
+                {
+                    chunkCloud.cloud = (AreaEffectCloud) e;
+                }
+            }
+            else if(shared)
+            {
+                // Clouds of plugins that used the API on their own are kept so their views can migrate them
+                if(chunkCloud.others == null)
+                {
+                    chunkCloud.others = new ArrayList<>();
+                }
+                chunkCloud.others.add((AreaEffectCloud) e);
+            }
+        }
+        lastSearch = chunkCloud;
+        lastSearchTick = keepalive.getTick();
+        return chunkCloud;
+    }
+    
+    /**
+     * Called when a view opens a chunk's cloud; the first view to open it starts keeping it alive
+     * @param chunkCloud the cloud, which has to have an entity
+     */
+    private void acquire(ChunkCloud chunkCloud)
+    {
+        if(chunkCloud.views++ > 0)
+        {
+            return;
+        }
+        opened.computeIfAbsent(chunkCloud.world.getUID(), id -> new HashMap<>())
+                .put(ChunkRegistry.chunkKey(chunkCloud.x, chunkCloud.z), chunkCloud);
+        loadedClouds++;
+        
+        // Hidden right away so the cloud isn't sent to players before the chunk is decoded
+        chunkCloud.cloud.setTicksLived(1);
+        if(preventSending)
+        {
+            hide(chunkCloud.cloud);
+        }
+        schedule(chunkCloud);
+    }
+    
+    /**
+     * Called when a view is done with a chunk's cloud; the last view to release it stops keeping it alive
+     * @param chunkCloud the cloud
+     */
+    private void release(ChunkCloud chunkCloud)
+    {
+        if(--chunkCloud.views == 0)
+        {
+            if(chunkCloud.cloud != null)
+            {
+                // "top off" the cloud timer so it survives until the chunk loads again
+                chunkCloud.cloud.setTicksLived(1);
+            }
+            close(chunkCloud);
+        }
+    }
+    
+    private void close(ChunkCloud chunkCloud)
+    {
+        if(chunkCloud.closed)
+        {
+            return;
+        }
+        chunkCloud.closed = true;
+        if(chunkCloud.cloud != null)
+        {
+            unhide(chunkCloud.cloud);
+        }
+        Map<Long, ChunkCloud> worldClouds = opened.get(chunkCloud.world.getUID());
+        if(worldClouds != null && worldClouds.remove(ChunkRegistry.chunkKey(chunkCloud.x, chunkCloud.z), chunkCloud))
+        {
+            loadedClouds--;
+        }
+    }
+    
+    private void schedule(ChunkCloud chunkCloud)
+    {
+        if(!chunkCloud.scheduled)
+        {
+            chunkCloud.scheduled = true;
+            keepalive.schedule(chunkCloud);
+        }
+    }
+    
+    private static Location getCloudPos(World world, int chunkX, int chunkZ)
+    {
+        return new Location(world, chunkX * 16, 1, chunkZ * 16);
+    }
+    
+    private void spawn(ChunkCloud chunkCloud)
+    {
+        chunkCloud.cloud = spawnCloud(getCloudPos(chunkCloud.world, chunkCloud.x, chunkCloud.z));
+        schedule(chunkCloud);
+    }
+    
+    private AreaEffectCloud spawnCloud(Location location)
+    {
+        return location.getWorld().spawn(location, AreaEffectCloud.class, cloud ->
+        {
+            if(preventSending)
+            {
+                hide(cloud);
+            }
+            cloud.getPersistentDataContainer().set(markerKey, PersistentDataType.INTEGER, 0);
+            cloud.clearCustomEffects();
+            cloud.setDuration(CLOUD_DURATION);
+            cloud.setParticle(Particle.BLOCK_CRACK, Material.AIR.createBlockData());
+            cloud.setSilent(true);
+            cloud.setRadius(0.0F);
+            cloud.setRadiusOnUse(0);
+            cloud.setRadiusPerTick(0);
+        });
+    }
+    
+    private void tickKeepalive()
+    {
+        long start = System.nanoTime();
+        keepalive.tick();
+        keepaliveNanos.add(System.nanoTime() - start);
+        keepalivePasses.increment();
+    }
+    
+    /**
+     * Tops off the timer of a cloud that is due, reconstructing it if it died
+     * @param chunkCloud the cloud
+     * @return true if the cloud should be kept alive again
+     */
+    private boolean keepAlive(ChunkCloud chunkCloud)
+    {
+        // Clouds that closed or lost all of their data since they were scheduled are dropped here
+        if(chunkCloud.closed || chunkCloud.cloud == null)
+        {
+            chunkCloud.scheduled = false;
+            return false;
+        }
+        // Clouds are also dropped once their chunk is gone, in case the chunk's unload was missed
+        if(!chunkCloud.world.isChunkLoaded(chunkCloud.x, chunkCloud.z))
+        {
+            close(chunkCloud);
+            chunkCloud.scheduled = false;
+            return false;
+        }
+        
+        AreaEffectCloud cloud = chunkCloud.cloud;
+        if(!cloud.isValid() || cloud.isDead())
+        {
+            deadWarnings.warn("AreaEffectCloud at " + chunkCloud.x + " " + chunkCloud.z + " is dead or invalid!");
+            unhide(cloud);
+            if(attemptReconstruction)
+            {
+                // The dead cloud still holds everything saved to it so its tags are copied to the replacement
+                AreaEffectCloud replacement = spawnCloud(cloud.getLocation());
+                PersistentBlockMetadataAPI.getRawTags(replacement.getPersistentDataContainer())
+                        .putAll(PersistentBlockMetadataAPI.getRawTags(cloud.getPersistentDataContainer()));
+                chunkCloud.cloud = replacement;
+                reconstructions.increment();
+                return true;
+            }
+            close(chunkCloud);
+            chunkCloud.scheduled = false;
+            return false;
+        }
+        cloud.setTicksLived(1);
+        return true;
+    }
+    
+    @EventHandler
+    private void onPluginEnable(PluginEnableEvent event)
+    {
+        if(preventSending && !sendPreventionReady && event.getPlugin().getName().equals("ProtocolLib"))
+        {
+            CloudSendPrevention.onReady(owner, this::shouldDrop);
+            sendPreventionReady = true;
+        }
+    }
+    
+    /**
+     * The cloud of a chunk, shared by the views that have metadata in it
+     */
+    private static final class ChunkCloud
+    {
+        private final World world;
+        private final int x;
+        private final int z;
+        private AreaEffectCloud cloud = null;
+        private List<AreaEffectCloud> others = null;
+        private int views = 0;
+        private boolean scheduled = false;
+        private boolean closed = false;
+        
+        private ChunkCloud(World world, int x, int z)
+        {
+            this.world = world;
+            this.x = x;
+            this.z = z;
+        }
+    }
+    
+    /**
+     * The metadata of one plugin, stored under the plugin's namespace on the clouds of the store
+     */
+    final class View implements MetadataStore
+    {
+        private final Plugin plugin;
+        private final NamespacedKey countKey;
+        private final NamespacedKey packedKey;
+        private final BlockKeyCache keyCache;
+        private final String prefix;
+        // The chunks this view holds a cloud for, released when the view closes
+        private final Set<CloudChunk> acquired = new HashSet<>();
+        
+        private View(Plugin plugin, BlockKeyCache keyCache)
+        {
+            this.plugin = plugin;
+            this.countKey = new NamespacedKey(plugin, "metacount");
+            this.packedKey = new NamespacedKey(plugin, "packed");
+            this.keyCache = keyCache;
+            this.prefix = countKey.getNamespace() + ":";
+        }
+        
+        @Override
+        public StoredChunk load(@NotNull Chunk chunk)
+        {
+            ChunkCloud chunkCloud = open(chunk.getWorld(), chunk.getX(), chunk.getZ());
+            if(chunkCloud.others != null)
+            {
+                migrateOthers(chunkCloud);
+            }
+            if(chunkCloud.cloud == null || !chunkCloud.cloud.getPersistentDataContainer().has(countKey, PersistentDataType.INTEGER))
+            {
+                return null;
+            }
+            return acquireChunk(chunkCloud);
+        }
+        
+        /**
+         * Moves this plugin's metadata from a cloud it used on its own onto the shared cloud
+         * @param chunkCloud the shared cloud
+         */
+        private void migrateOthers(ChunkCloud chunkCloud)
+        {
+            Iterator<AreaEffectCloud> iterator = chunkCloud.others.iterator();
+            while(iterator.hasNext())
+            {
+                AreaEffectCloud other = iterator.next();
+                if(other.getPersistentDataContainer().has(countKey, PersistentDataType.INTEGER))
+                {
+                    if(chunkCloud.cloud == null)
+                    {
+                        spawn(chunkCloud);
+                    }
+                    migrate(other, chunkCloud.cloud.getPersistentDataContainer(), keyCache, countKey, packedKey);
+                    iterator.remove();
+                }
+            }
+        }
+        
+        @Override
+        public @NotNull StoredChunk create(@NotNull World world, int chunkX, int chunkZ)
+        {
+            ChunkCloud chunkCloud = open(world, chunkX, chunkZ);
+            if(chunkCloud.cloud == null)
+            {
+                spawn(chunkCloud);
+            }
+            PersistentDataContainer container = chunkCloud.cloud.getPersistentDataContainer();
+            if(!container.has(countKey, PersistentDataType.INTEGER))
+            {
+                container.set(countKey, PersistentDataType.INTEGER, 0);
+            }
+            return acquireChunk(chunkCloud);
+        }
+        
+        private CloudChunk acquireChunk(ChunkCloud chunkCloud)
+        {
+            acquire(chunkCloud);
+            CloudChunk chunk = new CloudChunk(chunkCloud);
+            acquired.add(chunk);
+            return chunk;
+        }
+        
+        @Override
+        public void save(@NotNull World world)
+        {
+            // Clouds are saved with their chunks
+        }
+        
+        @Override
+        public void close()
+        {
+            CloudStore.this.close(this);
+        }
+        
+        private final class CloudChunk implements StoredChunk
+        {
+            private final ChunkCloud chunkCloud;
+            
+            private CloudChunk(ChunkCloud chunkCloud)
+            {
+                this.chunkCloud = chunkCloud;
+            }
+            
+            private PersistentDataContainer container()
+            {
+                return chunkCloud.cloud.getPersistentDataContainer();
+            }
+            
+            @Override
+            public @NotNull PersistentDataContainer newContainer()
+            {
+                return container().getAdapterContext().newPersistentDataContainer();
+            }
+            
+            @Override
+            public PersistentDataContainer get(int key)
+            {
+                return container().get(keyCache.get(key), PersistentDataType.TAG_CONTAINER);
+            }
+            
+            @Override
+            public void set(int key, @NotNull PersistentDataContainer value)
+            {
+                container().set(keyCache.get(key), PersistentDataType.TAG_CONTAINER, value);
+            }
+            
+            @Override
+            public void remove(int key)
+            {
+                container().remove(keyCache.get(key));
+            }
+            
+            @Override
+            public void forEach(@NotNull EntryVisitor visitor)
+            {
+                // Shared clouds hold the metadata of other plugins too, so only this plugin's keys are read
+                PersistentDataContainer container = container();
+                for(String key : PersistentBlockMetadataAPI.getKeys(container))
+                {
+                    long parsed = key.startsWith(prefix) ? BlockKey.parse(key) : BlockKey.INVALID;
+                    if(parsed != BlockKey.INVALID)
+                    {
+                        PersistentDataContainer value = container.get(keyCache.get((int) parsed), PersistentDataType.TAG_CONTAINER);
+                        if(value != null)
+                        {
+                            visitor.visit((int) parsed, value);
+                        }
+                    }
+                }
+            }
+            
+            @Override
+            public PersistentDataContainer getPacked()
+            {
+                return container().get(packedKey, PersistentDataType.TAG_CONTAINER);
+            }
+            
+            @Override
+            public void setPacked(PersistentDataContainer packed)
+            {
+                if(packed == null)
+                {
+                    container().remove(packedKey);
+                }
+                else
+                {
+                    container().set(packedKey, PersistentDataType.TAG_CONTAINER, packed);
+                }
+            }
+            
+            @Override
+            public int getCount()
+            {
+                return container().getOrDefault(countKey, PersistentDataType.INTEGER, -1);
+            }
+            
+            @Override
+            public void save(int count)
+            {
+                container().set(countKey, PersistentDataType.INTEGER, count);
+            }
+            
+            @Override
+            public void unload()
+            {
+                releaseChunk();
+            }
+            
+            // A chunk unloading after its view closed was already released with the view
+            private void releaseChunk()
+            {
+                if(acquired.remove(this))
+                {
+                    release(chunkCloud);
+                }
+            }
+            
+            @Override
+            public void delete()
+            {
+                AreaEffectCloud cloud = chunkCloud.cloud;
+                if(cloud != null)
+                {
+                    // Removals may not have been saved yet, so every block key of this plugin is removed
+                    PersistentDataContainer container = cloud.getPersistentDataContainer();
+                    for(String key : PersistentBlockMetadataAPI.getKeys(container).toArray(new String[0]))
+                    {
+                        long parsed = key.startsWith(prefix) ? BlockKey.parse(key) : BlockKey.INVALID;
+                        if(parsed != BlockKey.INVALID)
+                        {
+                            container.remove(keyCache.get((int) parsed));
+                        }
+                    }
+                    container.remove(packedKey);
+                    container.remove(countKey);
+                    
+                    // The cloud stays while other plugins still have metadata on it
+                    if(isUnused(container))
+                    {
+                        cloud.remove();
+                        unhide(cloud);
+                        chunkCloud.cloud = null;
+                    }
+                }
+                releaseChunk();
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An open-addressing set of primitive ints
+ * Reads are lock-free (optimistic) and may happen on any thread while writes are serialized
+ */
+final class ConcurrentIntSet
+{
+    private static final int FREE = 0;
+    private static final int MIN_CAPACITY = 16;
+    
+    private final StampedLock lock = new StampedLock();
+    private int[] table = new int[MIN_CAPACITY];
+    private int size = 0;
+    private boolean containsFree = false;
+    
+    /**
+     * Checks if the value is in the set
+     * @param value the value to check for
+     * @return true if the set contains the value
+     */
+    boolean contains(int value)
+    {
+        long stamp = lock.tryOptimisticRead();
+        boolean found = find(value);
+        if(!lock.validate(stamp))
+        {
+            stamp = lock.readLock();
+            try
+            {
+                found = find(value);
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * Adds a value to the set
+     * @param value the value to add
+     * @return true if the value was not already in the set
+     */
+    boolean add(int value)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            if(value == FREE)
+            {
+                if(containsFree)
+                {
+                    return false;
+                }
+                containsFree = true;
+                size++;
+                return true;
+            }
+            
+            int[] keys = table;
+            int mask = keys.length - 1;
+            int slot = Probing.home(value, mask);
+            while(keys[slot] != FREE)
+            {
+                if(keys[slot] == value)
+                {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = value;
+            if(Probing.isFull(++size, keys.length))
+            {
+                rehash(keys.length << 1);
+            }
+            return true;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Removes a value from the set
+     * @param value the value to remove
+     * @return true if the value was in the set
+     */
+    boolean remove(int value)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            if(value == FREE)
+            {
+                if(!containsFree)
+                {
+                    return false;
+                }
+                containsFree = false;
+                size--;
+                return true;
+            }
+            
+            int[] keys = table;
+            int mask = keys.length - 1;
+            int slot = Probing.home(value, mask);
+            while(keys[slot] != value)
+            {
+                if(keys[slot] == FREE)
+                {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            
+            // Later values whose probe passes the removed one move back so they stay reachable
+            int gap = slot;
+            slot = (slot + 1) & mask;
+            while(keys[slot] != FREE)
+            {
+                int home = Probing.home(keys[slot], mask);
+                if(Probing.canFill(gap, slot, home, mask))
+                {
+                    keys[gap] = keys[slot];
+                    gap = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[gap] = FREE;
+            size--;
+            return true;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Gets the amount of values in the set
+     * @return the size of the set
+     */
+    int size()
+    {
+        long stamp = lock.readLock();
+        try
+        {
+            return size;
+        }
+        finally
+        {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    private boolean find(int value)
+    {
+        if(value == FREE)
+        {
+            return containsFree;
+        }
+        
+        // Packet and async threads read the array while the main thread adds or removes ids, so the probe gives up
+        // after the capacity instead of waiting for a free slot
+        int[] keys = table;
+        int mask = keys.length - 1;
+        int slot = Probing.home(value, mask);
+        for(int i = 0; i < keys.length; i++)
+        {
+            int key = keys[slot];
+            if(key == value)
+            {
+                return true;
+            }
+            if(key == FREE)
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+    
+    private void rehash(int capacity)
+    {
+        int[] old = table;
+        int[] keys = new int[capacity];
+        int mask = capacity - 1;
+        for(int key : old)
+        {
+            if(key != FREE)
+            {
+                int slot = Probing.home(key, mask);
+                while(keys[slot] != FREE)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+        table = keys;
+    }
+}
@@ -0,0 +1,256 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An open-addressing map from primitive longs to non-null values
+ * Reads are lock-free (optimistic) and may happen on any thread while writes are serialized
+ * @param <V> the type of the values
+ */
+final class ConcurrentLongObjectMap<V>
+{
+    private static final int MIN_CAPACITY = 16;
+    
+    private final StampedLock lock = new StampedLock();
+    private Table table = new Table(MIN_CAPACITY);
+    private int size = 0;
+    
+    // One reference to both arrays, so a lookup racing a rehash reads keys and values of the same capacity
+    private static final class Table
+    {
+        private final long[] keys;
+        private final Object[] values;
+        
+        private Table(int capacity)
+        {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+    }
+    
+    /**
+     * Gets the value mapped to a key
+     * @param key the key
+     * @return the value or {@code null} if there is none
+     */
+    V get(long key)
+    {
+        long stamp = lock.tryOptimisticRead();
+        V value = find(key);
+        if(!lock.validate(stamp))
+        {
+            stamp = lock.readLock();
+            try
+            {
+                value = find(key);
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+    
+    /**
+     * Maps a key to a value
+     * @param key the key
+     * @param value the non-null value
+     * @return the previous value or {@code null} if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            Table current = table;
+            int slot = slotOf(current, key);
+            Object previous = current.values[slot];
+            current.keys[slot] = key;
+            current.values[slot] = value;
+            if(previous == null && Probing.isFull(++size, current.keys.length))
+            {
+                rehash(current.keys.length << 1);
+            }
+            return (V) previous;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Removes a key from the map
+     * @param key the key
+     * @return the removed value or {@code null} if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            int slot = slotOf(table, key);
+            Object previous = table.values[slot];
+            if(previous != null)
+            {
+                removeSlot(slot);
+            }
+            return (V) previous;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Removes a key only if it is mapped to the given value
+     * @param key the key
+     * @param value the value expected to be mapped to the key
+     * @return true if the key was removed
+     */
+    boolean remove(long key, V value)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            int slot = slotOf(table, key);
+            if(table.values[slot] != value)
+            {
+                return false;
+            }
+            removeSlot(slot);
+            return true;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    int size()
+    {
+        long stamp = lock.readLock();
+        try
+        {
+            return size;
+        }
+        finally
+        {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Gets a snapshot of the values in the map
+     * Callers iterate the snapshot outside of the lock so they are free to modify the map
+     * @return a new list of the values
+     */
+    @SuppressWarnings("unchecked")
+    List<V> values()
+    {
+        long stamp = lock.readLock();
+        try
+        {
+            List<V> result = new ArrayList<>(size);
+            for(Object value : table.values)
+            {
+                if(value != null)
+                {
+                    result.add((V) value);
+                }
+            }
+            return result;
+        }
+        finally
+        {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private V find(long key)
+    {
+        // A lookup overlapping a write can see a table without a free slot, so it gives up after the capacity
+        Table current = table;
+        long[] keys = current.keys;
+        Object[] values = current.values;
+        int mask = keys.length - 1;
+        int slot = Probing.home(key, mask);
+        for(int i = 0; i < keys.length; i++)
+        {
+            Object value = values[slot];
+            if(value == null)
+            {
+                return null;
+            }
+            if(keys[slot] == key)
+            {
+                return (V) value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+    
+    private void removeSlot(int slot)
+    {
+        long[] keys = table.keys;
+        Object[] values = table.values;
+        int mask = keys.length - 1;
+        
+        // Chunks unload all the time, so later entries move back rather than leaving tombstones to probe past
+        int gap = slot;
+        slot = (slot + 1) & mask;
+        while(values[slot] != null)
+        {
+            int home = Probing.home(keys[slot], mask);
+            if(Probing.canFill(gap, slot, home, mask))
+            {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        values[gap] = null;
+        size--;
+    }
+    
+    private static int slotOf(Table table, long key)
+    {
+        int mask = table.keys.length - 1;
+        int slot = Probing.home(key, mask);
+        while(table.values[slot] != null && table.keys[slot] != key)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    private void rehash(int capacity)
+    {
+        Table old = table;
+        Table resized = new Table(capacity);
+        int mask = capacity - 1;
+        for(int i = 0; i < old.values.length; i++)
+        {
+            if(old.values[i] != null)
+            {
+                int slot = Probing.home(old.keys[i], mask);
+                while(resized.values[slot] != null)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                resized.keys[slot] = old.keys[i];
+                resized.values[slot] = old.values[i];
+            }
+        }
+        table = resized;
+    }
+}
@@ -0,0 +1,252 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Bukkit;
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes containers in a compact binary form and reads them back
+ * Each value is stored as its key, a one byte type and the value itself; nested containers are written recursively
+ */
+final class ContainerCodec
+{
+    // The index of a type is its id in the binary form, so new types may only be appended
+    private static final PersistentDataType<?, ?>[] TYPES = {
+            PersistentDataType.BYTE, PersistentDataType.SHORT, PersistentDataType.INTEGER, PersistentDataType.LONG,
+            PersistentDataType.FLOAT, PersistentDataType.DOUBLE, PersistentDataType.STRING, PersistentDataType.BYTE_ARRAY,
+            PersistentDataType.INTEGER_ARRAY, PersistentDataType.LONG_ARRAY, PersistentDataType.TAG_CONTAINER
+    };
+    private static final int BYTE = 0;
+    private static final int SHORT = 1;
+    private static final int INTEGER = 2;
+    private static final int LONG = 3;
+    private static final int FLOAT = 4;
+    private static final int DOUBLE = 5;
+    private static final int STRING = 6;
+    private static final int BYTE_ARRAY = 7;
+    private static final int INTEGER_ARRAY = 8;
+    private static final int LONG_ARRAY = 9;
+    private static final int TAG_CONTAINER = 10;
+    
+    private ContainerCodec()
+    {
+    }
+    
+    /**
+     * Writes a container
+     * @param out the output to write to
+     * @param container the container to write
+     * @throws IOException if the output fails
+     */
+    static void write(DataOutput out, PersistentDataContainer container) throws IOException
+    {
+        List<NamespacedKey> keys = new ArrayList<>();
+        List<Integer> types = new ArrayList<>();
+        for(String key : PersistentBlockMetadataAPI.getKeys(container))
+        {
+            NamespacedKey namespacedKey = toKey(key);
+            int type = typeOf(container, namespacedKey);
+            if(type == -1)
+            {
+                Bukkit.getLogger().warning("Skipping block metadata " + key + " of an unsupported type");
+                continue;
+            }
+            keys.add(namespacedKey);
+            types.add(type);
+        }
+        
+        writeVarInt(out, keys.size());
+        for(int i = 0; i < keys.size(); i++)
+        {
+            NamespacedKey key = keys.get(i);
+            int type = types.get(i);
+            writeString(out, key.getNamespace() + ":" + key.getKey());
+            out.writeByte(type);
+            switch(type)
+            {
+                case BYTE:
+                    out.writeByte(container.get(key, PersistentDataType.BYTE));
+                    break;
+                case SHORT:
+                    out.writeShort(container.get(key, PersistentDataType.SHORT));
+                    break;
+                case INTEGER:
+                    out.writeInt(container.get(key, PersistentDataType.INTEGER));
+                    break;
+                case LONG:
+                    out.writeLong(container.get(key, PersistentDataType.LONG));
+                    break;
+                case FLOAT:
+                    out.writeFloat(container.get(key, PersistentDataType.FLOAT));
+                    break;
+                case DOUBLE:
+                    out.writeDouble(container.get(key, PersistentDataType.DOUBLE));
+                    break;
+                case STRING:
+                    writeString(out, container.get(key, PersistentDataType.STRING));
+                    break;
+                case BYTE_ARRAY:
+                    byte[] bytes = container.get(key, PersistentDataType.BYTE_ARRAY);
+                    writeVarInt(out, bytes.length);
+                    out.write(bytes);
+                    break;
+                case INTEGER_ARRAY:
+                    int[] ints = container.get(key, PersistentDataType.INTEGER_ARRAY);
+                    writeVarInt(out, ints.length);
+                    for(int value : ints)
+                    {
+                        out.writeInt(value);
+                    }
+                    break;
+                case LONG_ARRAY:
+                    long[] longs = container.get(key, PersistentDataType.LONG_ARRAY);
+                    writeVarInt(out, longs.length);
+                    for(long value : longs)
+                    {
+                        out.writeLong(value);
+                    }
+                    break;
+                default:
+                    write(out, container.get(key, PersistentDataType.TAG_CONTAINER));
+                    break;
+            }
+        }
+    }
+    
+    /**
+     * Reads a container written by {@link #write(DataOutput, PersistentDataContainer)}
+     * @param in the input to read from
+     * @param context the context to create the container with
+     * @return the container that was read
+     * @throws IOException if the input fails or is malformed
+     */
+    static PersistentDataContainer read(DataInput in, PersistentDataAdapterContext context) throws IOException
+    {
+        PersistentDataContainer container = context.newPersistentDataContainer();
+        int size = readVarInt(in);
+        for(int i = 0; i < size; i++)
+        {
+            NamespacedKey key = toKey(readString(in));
+            int type = in.readUnsignedByte();
+            switch(type)
+            {
+                case BYTE:
+                    container.set(key, PersistentDataType.BYTE, in.readByte());
+                    break;
+                case SHORT:
+                    container.set(key, PersistentDataType.SHORT, in.readShort());
+                    break;
+                case INTEGER:
+                    container.set(key, PersistentDataType.INTEGER, in.readInt());
+                    break;
+                case LONG:
+                    container.set(key, PersistentDataType.LONG, in.readLong());
+                    break;
+                case FLOAT:
+                    container.set(key, PersistentDataType.FLOAT, in.readFloat());
+                    break;
+                case DOUBLE:
+                    container.set(key, PersistentDataType.DOUBLE, in.readDouble());
+                    break;
+                case STRING:
+                    container.set(key, PersistentDataType.STRING, readString(in));
+                    break;
+                case BYTE_ARRAY:
+                    byte[] bytes = new byte[readVarInt(in)];
+                    in.readFully(bytes);
+                    container.set(key, PersistentDataType.BYTE_ARRAY, bytes);
+                    break;
+                case INTEGER_ARRAY:
+                    int[] ints = new int[readVarInt(in)];
+                    for(int j = 0; j < ints.length; j++)
+                    {
+                        ints[j] = in.readInt();
+                    }
+                    container.set(key, PersistentDataType.INTEGER_ARRAY, ints);
+                    break;
+                case LONG_ARRAY:
+                    long[] longs = new long[readVarInt(in)];
+                    for(int j = 0; j < longs.length; j++)
+                    {
+                        longs[j] = in.readLong();
+                    }
+                    container.set(key, PersistentDataType.LONG_ARRAY, longs);
+                    break;
+                case TAG_CONTAINER:
+                    container.set(key, PersistentDataType.TAG_CONTAINER, read(in, context));
+                    break;
+                default:
+                    throw new IOException("Unknown type " + type + " for " + key);
+            }
+        }
+        return container;
+    }
+    
+    // The container API can only check if a value has a given type, so the types are tried in turn
+    private static int typeOf(PersistentDataContainer container, NamespacedKey key)
+    {
+        for(int i = 0; i < TYPES.length; i++)
+        {
+            if(container.has(key, TYPES[i]))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    @SuppressWarnings("deprecation")
+    private static NamespacedKey toKey(String key)
+    {
+        int colon = key.indexOf(':');
+        return new NamespacedKey(key.substring(0, colon), key.substring(colon + 1));
+    }
+    
+    static void writeVarInt(DataOutput out, int value) throws IOException
+    {
+        while((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    static int readVarInt(DataInput in) throws IOException
+    {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("VarInt is too long");
+    }
+    
+    private static void writeString(DataOutput out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(DataInput in) throws IOException
+    {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
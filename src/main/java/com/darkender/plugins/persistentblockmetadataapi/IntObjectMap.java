@@ -0,0 +1,254 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An open-addressing map from primitive ints to non-null values
+ * Written by one thread at a time, usually the main thread. {@link #get(int)} and {@link #containsKey(int)} may be called
+ * from any thread and read optimistically like {@link ConcurrentLongObjectMap}; everything else belongs to the writing thread
+ * @param <V> the type of the values
+ */
+final class IntObjectMap<V>
+{
+    private static final int MIN_CAPACITY = 8;
+    
+    private final StampedLock lock = new StampedLock();
+    private Table table = new Table(MIN_CAPACITY);
+    private int size = 0;
+    
+    // Async readers of a chunk's entries load this once, so a resize on the writing thread never hands them new keys
+    // with old values
+    private static final class Table
+    {
+        private final int[] keys;
+        private final Object[] values;
+        
+        private Table(int capacity)
+        {
+            keys = new int[capacity];
+            values = new Object[capacity];
+        }
+    }
+    
+    /**
+     * Visits an entry of the map
+     * @param <V> the type of the values
+     */
+    interface Visitor<V>
+    {
+        void visit(int key, V value);
+    }
+    
+    int size()
+    {
+        return size;
+    }
+    
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+    
+    boolean containsKey(int key)
+    {
+        return get(key) != null;
+    }
+    
+    V get(int key)
+    {
+        long stamp = lock.tryOptimisticRead();
+        V value = find(key);
+        if(!lock.validate(stamp))
+        {
+            stamp = lock.readLock();
+            try
+            {
+                value = find(key);
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+    
+    /**
+     * Maps a key to a value
+     * @param key the key
+     * @param value the non-null value
+     * @return the previous value or {@code null} if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            Table current = table;
+            int slot = slotOf(current, key);
+            Object previous = current.values[slot];
+            current.keys[slot] = key;
+            current.values[slot] = value;
+            if(previous == null && Probing.isFull(++size, current.keys.length))
+            {
+                rehash(current.keys.length << 1);
+            }
+            return (V) previous;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Removes a key from the map
+     * @param key the key
+     * @return the removed value or {@code null} if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V remove(int key)
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            int[] keys = table.keys;
+            Object[] values = table.values;
+            int mask = keys.length - 1;
+            int slot = slotOf(table, key);
+            Object previous = values[slot];
+            if(previous == null)
+            {
+                return null;
+            }
+            
+            // Later entries whose probe passes the removed one move back into the gap, the rule is in Probing
+            int gap = slot;
+            slot = (slot + 1) & mask;
+            while(values[slot] != null)
+            {
+                int home = Probing.home(keys[slot], mask);
+                if(Probing.canFill(gap, slot, home, mask))
+                {
+                    keys[gap] = keys[slot];
+                    values[gap] = values[slot];
+                    gap = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            values[gap] = null;
+            size--;
+            return (V) previous;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    void clear()
+    {
+        long stamp = lock.writeLock();
+        try
+        {
+            Arrays.fill(table.values, null);
+            size = 0;
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Gets a copy of the keys in the map, safe to iterate while the map is modified
+     * @return the keys in the map
+     */
+    int[] keys()
+    {
+        Table current = table;
+        int[] result = new int[size];
+        int i = 0;
+        for(int slot = 0; slot < current.values.length; slot++)
+        {
+            if(current.values[slot] != null)
+            {
+                result[i++] = current.keys[slot];
+            }
+        }
+        return result;
+    }
+    
+    @SuppressWarnings("unchecked")
+    void forEach(Visitor<V> visitor)
+    {
+        Table current = table;
+        for(int slot = 0; slot < current.values.length; slot++)
+        {
+            if(current.values[slot] != null)
+            {
+                visitor.visit(current.keys[slot], (V) current.values[slot]);
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private V find(int key)
+    {
+        // A get racing a put may find no free slot while entries move, so it stops after one pass and get retries
+        // under the read lock
+        Table current = table;
+        int[] keys = current.keys;
+        Object[] values = current.values;
+        int mask = keys.length - 1;
+        int slot = Probing.home(key, mask);
+        for(int i = 0; i < keys.length; i++)
+        {
+            Object value = values[slot];
+            if(value == null)
+            {
+                return null;
+            }
+            if(keys[slot] == key)
+            {
+                return (V) value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+    
+    private static int slotOf(Table table, int key)
+    {
+        int mask = table.keys.length - 1;
+        int slot = Probing.home(key, mask);
+        while(table.values[slot] != null && table.keys[slot] != key)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    private void rehash(int capacity)
+    {
+        Table old = table;
+        Table resized = new Table(capacity);
+        int mask = capacity - 1;
+        for(int i = 0; i < old.values.length; i++)
+        {
+            if(old.values[i] != null)
+            {
+                int slot = Probing.home(old.keys[i], mask);
+                while(resized.values[slot] != null)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                resized.keys[slot] = old.keys[i];
+                resized.values[slot] = old.values[i];
+            }
+        }
+        table = resized;
+    }
+}
@@ -0,0 +1,86 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A timing wheel that hands each scheduled entry to the keepalive action once per interval
+ * Only entries that are due get touched, and at most a fixed number of them per tick; the rest carry over
+ * @param <T> the type of the entries
+ */
+final class KeepaliveScheduler<T>
+{
+    private final List<ArrayDeque<T>> wheel;
+    private final ArrayDeque<T> due = new ArrayDeque<>();
+    private final Predicate<T> action;
+    private int budget;
+    private long tick = 0;
+    
+    /**
+     * Constructs the KeepaliveScheduler
+     * @param interval how many ticks pass between visits to the same entry
+     * @param budget the maximum amount of entries visited per tick
+     * @param action called with each due entry; returns true to schedule it again
+     */
+    KeepaliveScheduler(int interval, int budget, Predicate<T> action)
+    {
+        this.wheel = new ArrayList<>(interval);
+        for(int i = 0; i < interval; i++)
+        {
+            wheel.add(new ArrayDeque<>());
+        }
+        this.budget = budget;
+        this.action = action;
+    }
+    
+    int getBudget()
+    {
+        return budget;
+    }
+    
+    void setBudget(int budget)
+    {
+        this.budget = budget;
+    }
+    
+    /**
+     * Gets how many times the wheel has advanced
+     * @return the current tick
+     */
+    long getTick()
+    {
+        return tick;
+    }
+    
+    /**
+     * Schedules an entry to be visited one interval from now
+     * @param entry the entry to schedule
+     */
+    void schedule(T entry)
+    {
+        // The current slot has already been drained this tick, so it comes around again after a full interval
+        wheel.get((int) (tick % wheel.size())).add(entry);
+    }
+    
+    /**
+     * Advances the wheel by one tick and visits the entries that are due, up to the budget
+     */
+    void tick()
+    {
+        tick++;
+        ArrayDeque<T> slot = wheel.get((int) (tick % wheel.size()));
+        due.addAll(slot);
+        slot.clear();
+        
+        for(int visited = 0; visited < budget && !due.isEmpty(); visited++)
+        {
+            T entry = due.poll();
+            if(action.test(entry))
+            {
+                schedule(entry);
+            }
+        }
+    }
+}
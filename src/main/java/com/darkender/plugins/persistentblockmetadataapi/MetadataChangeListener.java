@@ -0,0 +1,17 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the metadata changes of a world once per tick
+ */
+public interface MetadataChangeListener
+{
+    /**
+     * Called on the main thread with the changes made in a world since the last tick
+     * @param world the world the changes were made in
+     * @param changes the changes, only valid during this call
+     */
+    void onChanges(@NotNull World world, @NotNull MetadataChanges changes);
+}
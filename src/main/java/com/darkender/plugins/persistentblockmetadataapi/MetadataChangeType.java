@@ -0,0 +1,29 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+/**
+ * The kinds of changes delivered to a {@link MetadataChangeListener}
+ */
+public enum MetadataChangeType
+{
+    /**
+     * A block was given metadata
+     */
+    SET,
+    /**
+     * A block's metadata was removed
+     */
+    REMOVE,
+    /**
+     * A block's metadata was moved here from the neighbouring block opposite of the change's direction
+     * The block it came from is reported as removed unless something else happened to it
+     */
+    MOVE,
+    /**
+     * A chunk with metadata loaded
+     */
+    CHUNK_LOAD,
+    /**
+     * A chunk with metadata unloaded
+     */
+    CHUNK_UNLOAD
+}
@@ -0,0 +1,145 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.block.BlockFace;
+
+/**
+ * A batch of metadata changes in one world
+ * Each position appears at most once with the last change made to it during the tick
+ * Blocks are given as their chunk and their key from {@link BlockKey#pack(int, int, int)}
+ */
+public final class MetadataChanges
+{
+    private static final MetadataChangeType[] TYPES = MetadataChangeType.values();
+    private static final BlockFace[] FACES = BlockFace.values();
+    
+    private byte[] types;
+    private long[] chunks;
+    private int[] keys;
+    private byte[] directions;
+    private int[] indices;
+    private int size;
+    
+    MetadataChanges()
+    {
+    }
+    
+    void reset(byte[] types, long[] chunks, int[] keys, byte[] directions, int[] indices, int size)
+    {
+        this.types = types;
+        this.chunks = chunks;
+        this.keys = keys;
+        this.directions = directions;
+        this.indices = indices;
+        this.size = size;
+    }
+    
+    private int entry(int index)
+    {
+        if(index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for " + size + " changes");
+        }
+        return indices == null ? index : indices[index];
+    }
+    
+    /**
+     * Gets the amount of changes in the batch
+     * @return the amount of changes
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Gets what kind of change was made
+     * @param index the index of the change
+     * @return the type of the change
+     */
+    public MetadataChangeType getType(int index)
+    {
+        return TYPES[types[entry(index)]];
+    }
+    
+    /**
+     * Gets the x coordinate of the chunk the change was made in
+     * @param index the index of the change
+     * @return the chunk's x coordinate, for block and chunk changes alike
+     */
+    public int getChunkX(int index)
+    {
+        return (int) (chunks[entry(index)] >> 32);
+    }
+    
+    /**
+     * Gets the z coordinate of the chunk the change was made in
+     * @param index the index of the change
+     * @return the chunk's z coordinate, for block and chunk changes alike
+     */
+    public int getChunkZ(int index)
+    {
+        return (int) chunks[entry(index)];
+    }
+    
+    /**
+     * Gets the packed key of the changed block
+     * @param index the index of the change
+     * @return the key relative to the chunk
+     * @throws IllegalArgumentException if the change is a {@link MetadataChangeType#CHUNK_LOAD} or
+     * {@link MetadataChangeType#CHUNK_UNLOAD}, which has no block
+     */
+    public int getKey(int index)
+    {
+        int entry = entry(index);
+        MetadataChangeType type = TYPES[types[entry]];
+        if(type == MetadataChangeType.CHUNK_LOAD || type == MetadataChangeType.CHUNK_UNLOAD)
+        {
+            throw new IllegalArgumentException("Change " + index + " is a " + type + " and has no block");
+        }
+        return keys[entry];
+    }
+    
+    /**
+     * Gets the x coordinate of the changed block
+     * @param index the index of the change
+     * @return the block's x coordinate
+     * @throws IllegalArgumentException if the change is a chunk change, like {@link #getKey(int)}
+     */
+    public int getX(int index)
+    {
+        return (getChunkX(index) << 4) | BlockKey.x(getKey(index));
+    }
+    
+    /**
+     * Gets the y coordinate of the changed block
+     * @param index the index of the change
+     * @return the block's y coordinate
+     * @throws IllegalArgumentException if the change is a chunk change, like {@link #getKey(int)}
+     */
+    public int getY(int index)
+    {
+        return BlockKey.y(getKey(index));
+    }
+    
+    /**
+     * Gets the z coordinate of the changed block
+     * @param index the index of the change
+     * @return the block's z coordinate
+     * @throws IllegalArgumentException if the change is a chunk change, like {@link #getKey(int)}
+     */
+    public int getZ(int index)
+    {
+        return (getChunkZ(index) << 4) | BlockKey.z(getKey(index));
+    }
+    
+    /**
+     * Gets the direction metadata was moved in
+     * @param index the index of the change
+     * @return the direction for {@link MetadataChangeType#MOVE} changes and {@code null} for others
+     */
+    public BlockFace getDirection(int index)
+    {
+        byte direction = directions[entry(index)];
+        return direction < 0 ? null : FACES[direction];
+    }
+}
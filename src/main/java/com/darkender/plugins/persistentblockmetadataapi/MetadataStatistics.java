@@ -0,0 +1,203 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+/**
+ * A snapshot of what the API has done since it was constructed
+ * Counts and times only grow, so rates are found by comparing two snapshots taken some time apart.
+ * Cloud statistics are zero when metadata isn't stored on clouds, and cover every plugin sharing the clouds in shared mode
+ */
+public final class MetadataStatistics
+{
+    private final long hasCalls;
+    private final long getCalls;
+    private final long setCalls;
+    private final long removeCalls;
+    private final long chunkLoads;
+    private final long chunkLoadNanos;
+    private final long chunkUnloads;
+    private final long chunkUnloadNanos;
+    private final long repairs;
+    private final long keepalivePasses;
+    private final long keepaliveNanos;
+    private final long reconstructions;
+    private final long packetsInspected;
+    private final long packetsDropped;
+    private final int loadedClouds;
+    private final int loadedChunks;
+    private final long taggedBlocks;
+    
+    MetadataStatistics(long hasCalls, long getCalls, long setCalls, long removeCalls,
+                       long chunkLoads, long chunkLoadNanos, long chunkUnloads, long chunkUnloadNanos, long repairs,
+                       CloudStore cloudStore, int loadedChunks, long taggedBlocks)
+    {
+        this.hasCalls = hasCalls;
+        this.getCalls = getCalls;
+        this.setCalls = setCalls;
+        this.removeCalls = removeCalls;
+        this.chunkLoads = chunkLoads;
+        this.chunkLoadNanos = chunkLoadNanos;
+        this.chunkUnloads = chunkUnloads;
+        this.chunkUnloadNanos = chunkUnloadNanos;
+        this.repairs = repairs;
+        this.keepalivePasses = cloudStore == null ? 0 : cloudStore.getKeepalivePasses();
+        this.keepaliveNanos = cloudStore == null ? 0 : cloudStore.getKeepaliveNanos();
+        this.reconstructions = cloudStore == null ? 0 : cloudStore.getReconstructions();
+        this.packetsInspected = cloudStore == null ? 0 : cloudStore.getPacketsInspected();
+        this.packetsDropped = cloudStore == null ? 0 : cloudStore.getPacketsDropped();
+        this.loadedClouds = cloudStore == null ? 0 : cloudStore.getLoadedClouds();
+        this.loadedChunks = loadedChunks;
+        this.taggedBlocks = taggedBlocks;
+    }
+    
+    /**
+     * Gets how many times it was checked if a single block has metadata
+     * @return the amount of calls
+     */
+    public long getHasCalls()
+    {
+        return hasCalls;
+    }
+    
+    /**
+     * Gets how many times the metadata of a single block was gotten
+     * @return the amount of calls
+     */
+    public long getGetCalls()
+    {
+        return getCalls;
+    }
+    
+    /**
+     * Gets how many times the metadata of a single block was set
+     * @return the amount of calls
+     */
+    public long getSetCalls()
+    {
+        return setCalls;
+    }
+    
+    /**
+     * Gets how many times the metadata of a single block was removed
+     * @return the amount of calls
+     */
+    public long getRemoveCalls()
+    {
+        return removeCalls;
+    }
+    
+    /**
+     * Gets how many loaded chunks were searched for stored metadata
+     * @return the amount of chunks
+     */
+    public long getChunkLoads()
+    {
+        return chunkLoads;
+    }
+    
+    /**
+     * Gets the time spent searching loaded chunks for stored metadata, not including decoding it
+     * @return the time in nanoseconds
+     */
+    public long getChunkLoadNanos()
+    {
+        return chunkLoadNanos;
+    }
+    
+    /**
+     * Gets how many chunks with metadata unloaded
+     * @return the amount of chunks
+     */
+    public long getChunkUnloads()
+    {
+        return chunkUnloads;
+    }
+    
+    /**
+     * Gets the time spent writing back and closing the metadata of unloading chunks
+     * @return the time in nanoseconds
+     */
+    public long getChunkUnloadNanos()
+    {
+        return chunkUnloadNanos;
+    }
+    
+    /**
+     * Gets how many loaded chunks had their stored count fixed or their storage deleted because it held no metadata
+     * @return the amount of repaired chunks
+     */
+    public long getRepairs()
+    {
+        return repairs;
+    }
+    
+    /**
+     * Gets how many ticks the keepalive task ran
+     * @return the amount of passes
+     */
+    public long getKeepalivePasses()
+    {
+        return keepalivePasses;
+    }
+    
+    /**
+     * Gets the time spent keeping clouds alive
+     * @return the time in nanoseconds
+     */
+    public long getKeepaliveNanos()
+    {
+        return keepaliveNanos;
+    }
+    
+    /**
+     * Gets how many dead clouds were replaced
+     * @return the amount of reconstructions
+     */
+    public long getReconstructions()
+    {
+        return reconstructions;
+    }
+    
+    /**
+     * Gets how many entity spawn packets were checked for hidden clouds
+     * @return the amount of packets
+     */
+    public long getPacketsInspected()
+    {
+        return packetsInspected;
+    }
+    
+    /**
+     * Gets how many entity spawn packets were cancelled because they spawn a hidden cloud
+     * @return the amount of packets
+     */
+    public long getPacketsDropped()
+    {
+        return packetsDropped;
+    }
+    
+    /**
+     * Gets how many clouds are currently kept alive
+     * @return the amount of clouds
+     */
+    public int getLoadedClouds()
+    {
+        return loadedClouds;
+    }
+    
+    /**
+     * Gets how many loaded chunks have metadata, not counting chunks still waiting to be decoded
+     * @return the amount of chunks
+     */
+    public int getLoadedChunks()
+    {
+        return loadedChunks;
+    }
+    
+    /**
+     * Gets how many blocks in the loaded chunks have metadata
+     * @return the amount of blocks
+     */
+    public long getTaggedBlocks()
+    {
+        return taggedBlocks;
+    }
+}
@@ -0,0 +1,13 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+/**
+ * The management interface registered with JMX by {@link PersistentBlockMetadataAPI#setJmxEnabled(boolean)}
+ */
+public interface MetadataStatisticsMXBean
+{
+    /**
+     * Gets the current statistics of the API
+     * @return a snapshot of the statistics
+     */
+    MetadataStatistics getStatistics();
+}
@@ -0,0 +1,42 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Where block metadata is persisted
+ * The API keeps every loaded chunk's metadata in memory and hands changes to the store when it flushes,
+ * so stores only have to load a chunk once and apply the changes written to it. All methods are called on the main thread
+ */
+public interface MetadataStore
+{
+    /**
+     * Called when a chunk loads to open its stored metadata
+     * This should be cheap; reading the entries is deferred to {@link StoredChunk#forEach(StoredChunk.EntryVisitor)}
+     * @param chunk the chunk that loaded
+     * @return the chunk's storage or {@code null} if it has no metadata
+     */
+    @Nullable StoredChunk load(@NotNull Chunk chunk);
+    
+    /**
+     * Called when metadata is set in a chunk that had none
+     * @param world the world the chunk is in
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return new, empty storage for the chunk
+     */
+    @NotNull StoredChunk create(@NotNull World world, int chunkX, int chunkZ);
+    
+    /**
+     * Called when a world saves, after the changes of all of its loaded chunks have been saved
+     * @param world the world that is saving
+     */
+    void save(@NotNull World world);
+    
+    /**
+     * Called when the plugin using the API is disabled, after the changes of all loaded chunks have been saved
+     */
+    void close();
+}
@@ -3,6 +3,8 @@ package com.darkender.plugins.persistentblockmetadataapi;
 import org.bukkit.block.Block;
 import org.bukkit.event.Event;
 
+import java.util.List;
+
 public interface MetadataWorldTrackObserver
 {
     /**
@@ -12,6 +14,20 @@ public interface MetadataWorldTrackObserver
      */
     void onBreak(Block block, Event event);
     
+    /**
+     * Called once when an explosion breaks blocks storing metadata
+     * By default this calls {@link #onBreak(Block, Event)} for each block
+     * @param blocks the blocks that were broken, grouped by chunk
+     * @param event the event that was triggered
+     */
+    default void onExplode(List<Block> blocks, Event event)
+    {
+        for(Block block : blocks)
+        {
+            onBreak(block, event);
+        }
+    }
+    
     /**
      * Called when a block storing metadata has been moved to another location
      * @param from the previous block location
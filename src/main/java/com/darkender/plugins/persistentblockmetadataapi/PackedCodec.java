@@ -0,0 +1,50 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Converts small fixed-schema values to a row of primitive columns
+ * Values of one codec are stored per chunk as one array per column instead of one container per block,
+ * so thousands of blocks serialize into a few array tags
+ * @param <T> the type of the values
+ */
+public interface PackedCodec<T>
+{
+    /**
+     * Gets the name the columns are stored under
+     * @return a name unique among the codecs of the plugin, valid as the key of a NamespacedKey
+     */
+    @NotNull String getName();
+    
+    /**
+     * Gets how many byte columns a row has
+     * @return the amount of byte columns
+     */
+    int getByteColumns();
+    
+    /**
+     * Gets how many int columns a row has
+     * @return the amount of int columns
+     */
+    int getIntColumns();
+    
+    /**
+     * Gets how many long columns a row has
+     * @return the amount of long columns
+     */
+    int getLongColumns();
+    
+    /**
+     * Writes a value to a row
+     * @param value the value to write
+     * @param row the row to write to
+     */
+    void write(@NotNull T value, @NotNull PackedRow row);
+    
+    /**
+     * Reads a value from a row
+     * @param row the row to read from
+     * @return the value
+     */
+    @NotNull T read(@NotNull PackedRow row);
+}
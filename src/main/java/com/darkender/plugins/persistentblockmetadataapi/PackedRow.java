@@ -0,0 +1,20 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+/**
+ * One block's row in the columns of a {@link PackedCodec}
+ * Only valid during the call it is passed to
+ */
+public interface PackedRow
+{
+    byte getByte(int column);
+    
+    void setByte(int column, byte value);
+    
+    int getInt(int column);
+    
+    void setInt(int column, int value);
+    
+    long getLong(int column);
+    
+    void setLong(int column, long value);
+}
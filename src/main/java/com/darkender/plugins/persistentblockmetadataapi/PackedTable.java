@@ -0,0 +1,355 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Bukkit;
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Arrays;
+
+/**
+ * The values of one {@link PackedCodec} in a chunk, stored as one primitive array per column
+ * Rows are sorted by block key so a chunk is stored as the key array followed by the column arrays
+ * Only used on the main thread; the table itself is the row handed to the codec
+ */
+final class PackedTable implements PackedRow
+{
+    private int[] keys = new int[8];
+    private byte[][] bytes;
+    private int[][] ints;
+    private long[][] longs;
+    private int size = 0;
+    private int row = 0;
+    
+    PackedTable(PackedCodec<?> codec)
+    {
+        this(codec.getByteColumns(), codec.getIntColumns(), codec.getLongColumns());
+    }
+    
+    private PackedTable(int byteColumns, int intColumns, int longColumns)
+    {
+        this.bytes = new byte[byteColumns][keys.length];
+        this.ints = new int[intColumns][keys.length];
+        this.longs = new long[longColumns][keys.length];
+    }
+    
+    /**
+     * Creates an empty table with the same columns as this one
+     * @return the new table
+     */
+    PackedTable emptyCopy()
+    {
+        return new PackedTable(bytes.length, ints.length, longs.length);
+    }
+    
+    int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Gets the block key of a row
+     * @param index the row
+     * @return the packed block key
+     */
+    int keyAt(int index)
+    {
+        return keys[index];
+    }
+    
+    /**
+     * Adds or drops columns so the table matches a codec
+     * Columns the codec added since the table was stored are read as zero and columns it dropped are discarded
+     * @param codec the codec of the table
+     */
+    void fit(PackedCodec<?> codec)
+    {
+        if(bytes.length != codec.getByteColumns())
+        {
+            byte[][] fitted = new byte[codec.getByteColumns()][];
+            for(int i = 0; i < fitted.length; i++)
+            {
+                fitted[i] = i < bytes.length ? bytes[i] : new byte[keys.length];
+            }
+            bytes = fitted;
+        }
+        if(ints.length != codec.getIntColumns())
+        {
+            int[][] fitted = new int[codec.getIntColumns()][];
+            for(int i = 0; i < fitted.length; i++)
+            {
+                fitted[i] = i < ints.length ? ints[i] : new int[keys.length];
+            }
+            ints = fitted;
+        }
+        if(longs.length != codec.getLongColumns())
+        {
+            long[][] fitted = new long[codec.getLongColumns()][];
+            for(int i = 0; i < fitted.length; i++)
+            {
+                fitted[i] = i < longs.length ? longs[i] : new long[keys.length];
+            }
+            longs = fitted;
+        }
+    }
+    
+    /**
+     * Copies the columns of a row into a row of another table
+     * Columns only one of the tables has are left as they are
+     * @param index the row to copy
+     * @param target the table to copy to
+     * @param targetIndex the row to copy to
+     */
+    void copyRow(int index, PackedTable target, int targetIndex)
+    {
+        for(int i = 0; i < Math.min(bytes.length, target.bytes.length); i++)
+        {
+            target.bytes[i][targetIndex] = bytes[i][index];
+        }
+        for(int i = 0; i < Math.min(ints.length, target.ints.length); i++)
+        {
+            target.ints[i][targetIndex] = ints[i][index];
+        }
+        for(int i = 0; i < Math.min(longs.length, target.longs.length); i++)
+        {
+            target.longs[i][targetIndex] = longs[i][index];
+        }
+    }
+    
+    /**
+     * Finds the row of a block
+     * @param key the packed block key
+     * @return the row or a negative value if the block has no row
+     */
+    int indexOf(int key)
+    {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+    
+    /**
+     * Points the table at a row so it can be read or written through {@link PackedRow}
+     * @param index the row
+     * @return this table
+     */
+    PackedRow at(int index)
+    {
+        row = index;
+        return this;
+    }
+    
+    /**
+     * Gets the row of a block, inserting a zeroed row if it has none
+     * @param key the packed block key
+     * @return the row
+     */
+    int insert(int key)
+    {
+        int index = indexOf(key);
+        if(index >= 0)
+        {
+            return index;
+        }
+        index = -index - 1;
+        if(size == keys.length)
+        {
+            grow(keys.length * 2);
+        }
+        int moved = size - index;
+        System.arraycopy(keys, index, keys, index + 1, moved);
+        keys[index] = key;
+        for(byte[] column : bytes)
+        {
+            System.arraycopy(column, index, column, index + 1, moved);
+            column[index] = 0;
+        }
+        for(int[] column : ints)
+        {
+            System.arraycopy(column, index, column, index + 1, moved);
+            column[index] = 0;
+        }
+        for(long[] column : longs)
+        {
+            System.arraycopy(column, index, column, index + 1, moved);
+            column[index] = 0;
+        }
+        size++;
+        return index;
+    }
+    
+    /**
+     * Removes the row of a block
+     * @param key the packed block key
+     * @return true if the block had a row
+     */
+    boolean remove(int key)
+    {
+        int index = indexOf(key);
+        if(index < 0)
+        {
+            return false;
+        }
+        int moved = size - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, moved);
+        for(byte[] column : bytes)
+        {
+            System.arraycopy(column, index + 1, column, index, moved);
+        }
+        for(int[] column : ints)
+        {
+            System.arraycopy(column, index + 1, column, index, moved);
+        }
+        for(long[] column : longs)
+        {
+            System.arraycopy(column, index + 1, column, index, moved);
+        }
+        size--;
+        return true;
+    }
+    
+    private void grow(int capacity)
+    {
+        keys = Arrays.copyOf(keys, capacity);
+        for(int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = Arrays.copyOf(bytes[i], capacity);
+        }
+        for(int i = 0; i < ints.length; i++)
+        {
+            ints[i] = Arrays.copyOf(ints[i], capacity);
+        }
+        for(int i = 0; i < longs.length; i++)
+        {
+            longs[i] = Arrays.copyOf(longs[i], capacity);
+        }
+    }
+    
+    @Override
+    public byte getByte(int column)
+    {
+        return bytes[column][row];
+    }
+    
+    @Override
+    public void setByte(int column, byte value)
+    {
+        bytes[column][row] = value;
+    }
+    
+    @Override
+    public int getInt(int column)
+    {
+        return ints[column][row];
+    }
+    
+    @Override
+    public void setInt(int column, int value)
+    {
+        ints[column][row] = value;
+    }
+    
+    @Override
+    public long getLong(int column)
+    {
+        return longs[column][row];
+    }
+    
+    @Override
+    public void setLong(int column, long value)
+    {
+        longs[column][row] = value;
+    }
+    
+    /**
+     * Writes the table into a container as a key array and one array per column
+     * @param plugin the plugin the keys belong to
+     * @param container the empty container to write to
+     * @return the container
+     */
+    PersistentDataContainer encode(Plugin plugin, PersistentDataContainer container)
+    {
+        container.set(new NamespacedKey(plugin, "keys"), PersistentDataType.INTEGER_ARRAY, Arrays.copyOf(keys, size));
+        for(int i = 0; i < bytes.length; i++)
+        {
+            container.set(new NamespacedKey(plugin, "b" + i), PersistentDataType.BYTE_ARRAY, Arrays.copyOf(bytes[i], size));
+        }
+        for(int i = 0; i < ints.length; i++)
+        {
+            container.set(new NamespacedKey(plugin, "i" + i), PersistentDataType.INTEGER_ARRAY, Arrays.copyOf(ints[i], size));
+        }
+        for(int i = 0; i < longs.length; i++)
+        {
+            container.set(new NamespacedKey(plugin, "l" + i), PersistentDataType.LONG_ARRAY, Arrays.copyOf(longs[i], size));
+        }
+        return container;
+    }
+    
+    /**
+     * Reads a table written by {@link #encode(Plugin, PersistentDataContainer)} with as many columns as were stored
+     * Codecs aren't known while chunks load, so the table is fitted to its codec when the codec first uses it
+     * @param plugin the plugin the keys belong to
+     * @param name the name of the table's codec
+     * @param container the container to read from
+     * @return the table that was read
+     */
+    static PackedTable decode(Plugin plugin, String name, PersistentDataContainer container)
+    {
+        int[] keys = container.get(new NamespacedKey(plugin, "keys"), PersistentDataType.INTEGER_ARRAY);
+        if(keys == null)
+        {
+            return new PackedTable(0, 0, 0);
+        }
+        PackedTable table = new PackedTable(countColumns(plugin, "b", PersistentDataType.BYTE_ARRAY, container),
+                countColumns(plugin, "i", PersistentDataType.INTEGER_ARRAY, container),
+                countColumns(plugin, "l", PersistentDataType.LONG_ARRAY, container));
+        int size = keys.length;
+        table.grow(Math.max(size, 8));
+        System.arraycopy(keys, 0, table.keys, 0, size);
+        table.size = size;
+        for(int i = 0; i < table.bytes.length; i++)
+        {
+            byte[] column = container.get(new NamespacedKey(plugin, "b" + i), PersistentDataType.BYTE_ARRAY);
+            if(checkLength(name, column.length, size))
+            {
+                System.arraycopy(column, 0, table.bytes[i], 0, size);
+            }
+        }
+        for(int i = 0; i < table.ints.length; i++)
+        {
+            int[] column = container.get(new NamespacedKey(plugin, "i" + i), PersistentDataType.INTEGER_ARRAY);
+            if(checkLength(name, column.length, size))
+            {
+                System.arraycopy(column, 0, table.ints[i], 0, size);
+            }
+        }
+        for(int i = 0; i < table.longs.length; i++)
+        {
+            long[] column = container.get(new NamespacedKey(plugin, "l" + i), PersistentDataType.LONG_ARRAY);
+            if(checkLength(name, column.length, size))
+            {
+                System.arraycopy(column, 0, table.longs[i], 0, size);
+            }
+        }
+        return table;
+    }
+    
+    private static int countColumns(Plugin plugin, String prefix, PersistentDataType<?, ?> type, PersistentDataContainer container)
+    {
+        int count = 0;
+        while(container.has(new NamespacedKey(plugin, prefix + count), type))
+        {
+            count++;
+        }
+        return count;
+    }
+    
+    private static boolean checkLength(String name, int length, int size)
+    {
+        if(length != size)
+        {
+            Bukkit.getLogger().warning("Packed block metadata " + name + " has a column of the wrong length");
+            return false;
+        }
+        return true;
+    }
+}
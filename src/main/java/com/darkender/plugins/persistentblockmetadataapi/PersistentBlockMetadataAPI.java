@@ -2,37 +2,60 @@ package com.darkender.plugins.persistentblockmetadataapi;
 
 import org.bukkit.*;
 import org.bukkit.block.Block;
-import org.bukkit.entity.AreaEffectCloud;
-import org.bukkit.entity.Entity;
-import org.bukkit.entity.EntityType;
+import org.bukkit.block.BlockFace;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
-import org.bukkit.event.server.PluginEnableEvent;
+import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
 import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.BoundingBox;
 import org.jetbrains.annotations.NotNull;
 
-import java.lang.invoke.MethodHandle;
-import java.lang.invoke.MethodHandles;
-import java.lang.invoke.MethodType;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PersistentBlockMetadataAPI implements Listener
 {
     private final Plugin plugin;
-    private final NamespacedKey countKey;
-    private final Map<Chunk, AreaEffectCloud> loadedClouds = new HashMap<>();
-    private static final MethodHandle getRawHandle = findGetRawHandle();
-    private boolean attemptReconstruction;
-    private final boolean preventSending;
-    private boolean sendPreventionReady = false;
-    private final Map<Chunk, AreaEffectCloud> reconstructedClouds = new HashMap<>();
-    private final Set<CloudID> hiddenIDs = new HashSet<>();
+    private final NamespacedKey copyKey;
+    private final String packedPrefix;
+    private final BlockKeyCache keyCache;
+    private final MetadataStore store;
+    private final CloudStore cloudStore;
+    private final ChunkRegistry loadedChunks = new ChunkRegistry();
+    private final ChunkIndex chunkIndex;
     private LoadUnloadTypeChecker loadUnloadTypeChecker = null;
+    private SnapshotTypeChecker snapshotTypeChecker = null;
+    private long flushInterval = 20L * 60L;
+    private BukkitTask flushTask = null;
+    
+    // Loaded chunks are decoded and type checked over the following ticks instead of inside the load event
+    private final ChunkIngestQueue ingestQueue = new ChunkIngestQueue();
+    private final ArrayDeque<ChunkData> typeChecks = new ArrayDeque<>();
+    private long ingestBudget = 2_000_000L;
+    private final ChangeStream changes = new ChangeStream();
+    
+    // Counted from any thread that uses the API and read by statistics
+    private final LongAdder hasCalls = new LongAdder();
+    private final LongAdder getCalls = new LongAdder();
+    private final LongAdder setCalls = new LongAdder();
+    private final LongAdder removeCalls = new LongAdder();
+    private final LongAdder chunkLoads = new LongAdder();
+    private final LongAdder chunkLoadNanos = new LongAdder();
+    private final LongAdder chunkUnloads = new LongAdder();
+    private final LongAdder chunkUnloadNanos = new LongAdder();
+    private final LongAdder repairs = new LongAdder();
+    private ObjectName jmxName = null;
     
     /**
      * Construct the PersistentBlockMetadataAPI
@@ -45,63 +68,101 @@ public class PersistentBlockMetadataAPI implements Listener
     
     /**
      * Construct the PersistentBlockMetadataAPI
+     * Metadata is stored in the chunks themselves on servers where chunks have a PersistentDataContainer,
+     * migrating existing clouds as their chunks load; otherwise it is stored on area effect clouds
      * @param plugin the plugin using this API. Registers keys, events, and timers with this plugin
      * @param attemptReconstruction if cloud reconstruction (upon detected death) should be enabled
      * @param preventSending if the server should prevent sending the entity packet
      */
     public PersistentBlockMetadataAPI(@NotNull Plugin plugin, boolean attemptReconstruction, boolean preventSending)
+    {
+        this(plugin, null, attemptReconstruction, preventSending, false);
+    }
+    
+    /**
+     * Construct the PersistentBlockMetadataAPI
+     * In shared mode, every plugin on the server using shared mode stores its metadata on the same cloud per chunk
+     * and the clouds are kept alive and hidden by one task and one packet listener, while each plugin only sees its own metadata.
+     * Clouds a plugin used on its own are migrated the first time their chunk loads.
+     * The clouds' settings are those of the first plugin to use shared mode, and changing them changes them for every plugin.
+     * Plugins only share with plugins using the same copy of this API, so it must not be shaded into each plugin separately
+     * @param plugin the plugin using this API. Registers keys, events, and timers with this plugin
+     * @param attemptReconstruction if cloud reconstruction (upon detected death) should be enabled
+     * @param preventSending if the server should prevent sending the entity packet
+     * @param shared if the clouds should be shared with other plugins
+     */
+    public PersistentBlockMetadataAPI(@NotNull Plugin plugin, boolean attemptReconstruction, boolean preventSending, boolean shared)
+    {
+        this(plugin, null, attemptReconstruction, preventSending, shared);
+    }
+    
+    /**
+     * Construct the PersistentBlockMetadataAPI
+     * @param plugin the plugin using this API. Registers keys, events, and timers with this plugin
+     * @param store where metadata is persisted instead of area effect clouds
+     */
+    public PersistentBlockMetadataAPI(@NotNull Plugin plugin, @NotNull MetadataStore store)
+    {
+        this(plugin, store, false, false, false);
+    }
+    
+    private PersistentBlockMetadataAPI(Plugin plugin, MetadataStore store, boolean attemptReconstruction, boolean preventSending,
+                                       boolean shared)
     {
         this.plugin = plugin;
-        this.attemptReconstruction = attemptReconstruction;
-        this.preventSending = preventSending;
         
-        countKey = new NamespacedKey(plugin, "metacount");
-        for(World world : plugin.getServer().getWorlds())
+        // Resolved now so an unsupported server is reported when the plugin enables
+        if(!RawTagAccessor.isAvailable())
         {
-            for(Chunk chunk : world.getLoadedChunks())
-            {
-                checkChunk(chunk);
-            }
+            Bukkit.getLogger().warning("Can't read PersistentDataContainer keys on this server, stored block metadata won't load");
         }
         
-        if(preventSending)
+        copyKey = new NamespacedKey(plugin, "copy");
+        
+        // Tables are stored under their codec's name in the plugin's namespace
+        packedPrefix = new NamespacedKey(plugin, "packed").getNamespace() + ":";
+        keyCache = new BlockKeyCache(plugin);
+        if(store == null && !ChunkContainerStore.isSupported())
+        {
+            cloudStore = shared ? CloudStore.shared(plugin, attemptReconstruction, preventSending) :
+                    CloudStore.standalone(plugin, attemptReconstruction, preventSending);
+            store = cloudStore.view(plugin, keyCache);
+        }
+        else
         {
-            if(Bukkit.getPluginManager().isPluginEnabled("ProtocolLib"))
+            cloudStore = null;
+            if(store == null)
             {
-                CloudSendPrevention.onReady(plugin, this);
-                sendPreventionReady = true;
+                store = new ChunkContainerStore(plugin, keyCache);
             }
         }
+        this.store = store;
         
-        plugin.getServer().getPluginManager().registerEvents(this, plugin);
-        plugin.getServer().getScheduler().scheduleSyncRepeatingTask(plugin, () ->
+        // Only the chunks listed in a complete index have to be searched for metadata
+        chunkIndex = new ChunkIndex(plugin);
+        for(World world : plugin.getServer().getWorlds())
         {
-            loadedClouds.entrySet().removeIf(entry ->
+            if(chunkIndex.isComplete(world))
             {
-                if(!entry.getValue().isValid() || entry.getValue().isDead())
+                chunkIndex.forEach(world, (chunkX, chunkZ, count) ->
                 {
-                    Bukkit.getLogger().warning("AreaEffectCloud is dead or invalid!");
-                    if(attemptReconstruction)
+                    if(world.isChunkLoaded(chunkX, chunkZ))
                     {
-                        PersistentDataContainer old = entry.getValue().getPersistentDataContainer();
-                        AreaEffectCloud newCloud = spawnCloud(entry.getValue().getLocation());
-                        PersistentDataContainer newContainer = newCloud.getPersistentDataContainer();
-                        getRawTags(newContainer).putAll(getRawTags(old));
-                        reconstructedClouds.put(entry.getKey(), newCloud);
+                        queueChunk(world.getChunkAt(chunkX, chunkZ));
                     }
-                    return true;
-                }
-                entry.getValue().setTicksLived(1);
-                return false;
-            });
-            
-            if(attemptReconstruction && reconstructedClouds.size() > 0)
+                });
+                continue;
+            }
+            for(Chunk chunk : world.getLoadedChunks())
             {
-                loadedClouds.putAll(reconstructedClouds);
-                reconstructedClouds.clear();
+                queueChunk(chunk);
             }
-            
-        }, 1L, 20L);
+        }
+        
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        plugin.getServer().getScheduler().runTaskTimer(plugin, this::processQueues, 1L, 1L);
+        plugin.getServer().getScheduler().runTaskTimer(plugin, changes::dispatch, 1L, 1L);
+        scheduleFlushTask();
     }
     
     public void setLoadUnloadTypeChecker(LoadUnloadTypeChecker loadUnloadTypeChecker)
@@ -109,18 +170,89 @@ public class PersistentBlockMetadataAPI implements Listener
         this.loadUnloadTypeChecker = loadUnloadTypeChecker;
     }
     
-    private static MethodHandle findGetRawHandle()
+    /**
+     * Sets a checker that validates the metadata of loaded chunks off the main thread
+     * Blocks are checked against a snapshot of the chunk and the removals are applied together a few ticks after it loads.
+     * Unlike the LoadUnloadTypeChecker it does not run on unload; a chunk loads again in the state it unloaded in
+     * @param snapshotTypeChecker the checker or {@code null} to disable snapshot checking
+     */
+    public void setSnapshotTypeChecker(SnapshotTypeChecker snapshotTypeChecker)
     {
-        try
+        this.snapshotTypeChecker = snapshotTypeChecker;
+    }
+    
+    /**
+     * Gets how often changed metadata is written back to storage
+     * @return the interval in ticks, or 0 if changes are only written when chunks unload or worlds save
+     */
+    public long getFlushInterval()
+    {
+        return flushInterval;
+    }
+    
+    /**
+     * Sets how often changed metadata is written back to storage
+     * Changes are always written when a chunk unloads, its world saves, or the plugin is disabled
+     * @param flushInterval the interval in ticks, or 0 to only write changes when chunks unload or worlds save
+     */
+    public void setFlushInterval(long flushInterval)
+    {
+        this.flushInterval = flushInterval;
+        scheduleFlushTask();
+    }
+    
+    private void scheduleFlushTask()
+    {
+        if(flushTask != null)
         {
-            return MethodHandles.lookup().findVirtual(getCraftBukkitClass("persistence.CraftPersistentDataContainer"),
-                    "getRaw", MethodType.methodType(Map.class));
+            flushTask.cancel();
+            flushTask = null;
         }
-        catch(Throwable e)
+        if(flushInterval > 0)
         {
-            e.printStackTrace();
+            flushTask = plugin.getServer().getScheduler().runTaskTimer(plugin, (Runnable) this::flush, flushInterval, flushInterval);
+        }
+    }
+    
+    /**
+     * Gets how long loaded chunks may be decoded and type checked for each tick
+     * @return the budget in nanoseconds
+     */
+    public long getIngestBudget()
+    {
+        return ingestBudget;
+    }
+    
+    /**
+     * Sets how long loaded chunks may be decoded and type checked for each tick
+     * At least one chunk is handled per tick no matter the budget, and queued chunks are handled immediately when their metadata is used
+     * @param ingestBudget the budget in nanoseconds
+     */
+    public void setIngestBudget(long ingestBudget)
+    {
+        this.ingestBudget = ingestBudget;
+    }
+    
+    /**
+     * Gets the maximum amount of clouds kept alive per tick
+     * @return the maximum amount of clouds kept alive per tick
+     */
+    public int getKeepaliveBudget()
+    {
+        return cloudStore == null ? 0 : cloudStore.getKeepaliveBudget();
+    }
+    
+    /**
+     * Sets the maximum amount of clouds kept alive per tick
+     * Clouds over the budget are carried over to the next tick; has no effect when metadata isn't stored on clouds
+     * @param keepaliveBudget the maximum amount of clouds kept alive per tick
+     */
+    public void setKeepaliveBudget(int keepaliveBudget)
+    {
+        if(cloudStore != null)
+        {
+            cloudStore.setKeepaliveBudget(keepaliveBudget);
         }
-        return null;
     }
     
     /**
@@ -129,54 +261,191 @@ public class PersistentBlockMetadataAPI implements Listener
      */
     public boolean shouldAttemptReconstruction()
     {
-        return attemptReconstruction;
+        return cloudStore != null && cloudStore.shouldAttemptReconstruction();
     }
     
     /**
      * Sets whether or not AreaEffectCloud reconstruction is enabled
+     * Has no effect when metadata isn't stored on clouds
      * @param attemptReconstruction whether or not AreaEffectCloud reconstruction is enabled
      */
     public void setAttemptReconstruction(boolean attemptReconstruction)
     {
-        this.attemptReconstruction = attemptReconstruction;
+        if(cloudStore != null)
+        {
+            cloudStore.setAttemptReconstruction(attemptReconstruction);
+        }
+    }
+    
+    /**
+     * Gets a snapshot of what the API has done since it was constructed
+     * May be called from any thread
+     * @return the statistics
+     */
+    public MetadataStatistics getStatistics()
+    {
+        int[] chunks = new int[1];
+        long[] blocks = new long[1];
+        loadedChunks.forEach(chunkData ->
+        {
+            chunks[0]++;
+            blocks[0] += chunkData.trackedSize();
+        });
+        return new MetadataStatistics(hasCalls.sum(), getCalls.sum(), setCalls.sum(), removeCalls.sum(),
+                chunkLoads.sum(), chunkLoadNanos.sum(), chunkUnloads.sum(), chunkUnloadNanos.sum(), repairs.sum(),
+                cloudStore, chunks[0], blocks[0]);
     }
     
-    private Location getCloudPos(Block block)
+    /**
+     * Checks if the statistics are registered with JMX
+     * @return true if they are registered
+     */
+    public boolean isJmxEnabled()
     {
-        return new Location(block.getWorld(), block.getChunk().getX() * 16, 1, block.getChunk().getZ() * 16);
+        return jmxName != null;
     }
     
-    private AreaEffectCloud spawnCloud(Location location)
+    /**
+     * Sets whether the statistics are registered with the platform MBean server
+     * They are registered as {@code com.darkender.plugins.persistentblockmetadataapi:type=Statistics,plugin=<plugin name>}
+     * and unregistered when the plugin is disabled
+     * @param jmxEnabled whether the statistics should be registered
+     */
+    public void setJmxEnabled(boolean jmxEnabled)
     {
-        return location.getWorld().spawn(location, AreaEffectCloud.class, cloud ->
+        if(jmxEnabled == isJmxEnabled())
         {
-            hiddenIDs.add(new CloudID(cloud.getEntityId(), cloud.getWorld().getUID()));
-            cloud.clearCustomEffects();
-            cloud.setDuration(60 * 20);
-            cloud.setParticle(Particle.BLOCK_CRACK, Material.AIR.createBlockData());
-            cloud.setSilent(true);
-            cloud.setRadius(0.0F);
-            cloud.setRadiusOnUse(0);
-            cloud.setRadiusPerTick(0);
-        });
+            return;
+        }
+        try
+        {
+            if(jmxEnabled)
+            {
+                ObjectName name = new ObjectName("com.darkender.plugins.persistentblockmetadataapi:type=Statistics,plugin=" +
+                        ObjectName.quote(plugin.getName()));
+                MetadataStatisticsMXBean bean = this::getStatistics;
+                ManagementFactory.getPlatformMBeanServer().registerMBean(bean, name);
+                jmxName = name;
+            }
+            else
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(jmxName);
+                jmxName = null;
+            }
+        }
+        catch(JMException e)
+        {
+            Bukkit.getLogger().warning("Failed to " + (jmxEnabled ? "register" : "unregister") + " block metadata statistics");
+            e.printStackTrace();
+        }
+    }
+    
+    private ChunkData chunkDataFor(World world, int x, int z)
+    {
+        int chunkX = x >> 4;
+        int chunkZ = z >> 4;
+        ChunkData chunkData = loaded(world, chunkX, chunkZ);
+        if(chunkData == null)
+        {
+            StoredChunk created = store.create(world, chunkX, chunkZ);
+            
+            // Creating storage can load the chunk, which queues the storage it opened with the chunk's metadata
+            chunkData = loaded(world, chunkX, chunkZ);
+            if(chunkData != null)
+            {
+                created.unload();
+                return chunkData;
+            }
+            chunkData = new ChunkData(world, chunkX, chunkZ, created);
+            loadedChunks.put(chunkData);
+        }
+        return chunkData;
     }
     
     /**
-     * Checks if the entity id should be hidden from the client
-     * @param id the entity id to check for
-     * @param worldID the UUID of the world to check in
-     * @return true if the UUID should be hidden
+     * Gets the metadata of a loaded chunk, first finishing any queued decoding or type checking of it
+     * Queued chunks are only finished on the main thread; other threads see them as having no metadata until then
+     * @param world the world the chunk is in
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return the chunk's metadata or {@code null} if the chunk has none
      */
-    public boolean isHidden(int id, UUID worldID)
+    private ChunkData loaded(World world, int chunkX, int chunkZ)
     {
-        for(CloudID cloudID : hiddenIDs)
+        ChunkData chunkData = loadedChunks.get(world, chunkX, chunkZ);
+        if(chunkData == null)
         {
-            if(cloudID.getId() == id && cloudID.getWorldID().equals(worldID))
+            if(!Bukkit.isPrimaryThread() || ingestQueue.isEmpty())
+            {
+                return null;
+            }
+            chunkData = ingestQueue.take(world, chunkX, chunkZ);
+            if(chunkData == null || !ingest(chunkData))
             {
-                return true;
+                return null;
             }
         }
-        return false;
+        if(chunkData.isTypeCheckPending() && Bukkit.isPrimaryThread())
+        {
+            // The check may remove every entry and with them the chunk's metadata
+            checkTypes(chunkData);
+            return loadedChunks.get(world, chunkX, chunkZ);
+        }
+        return chunkData;
+    }
+    
+    /**
+     * Checks if the entity id should be hidden from the client
+     * @param id the entity id to check for
+     * @return true if the entity should be hidden
+     */
+    public boolean isHidden(int id)
+    {
+        return cloudStore != null && cloudStore.isHidden(id);
+    }
+    
+    /**
+     * Checks if the entity id should be hidden from the client
+     * @param id the entity id to check for
+     * @param worldID the UUID of the world to check in
+     * @return true if the entity should be hidden
+     * @deprecated entity ids are unique across worlds, use {@link #isHidden(int)}
+     */
+    @Deprecated
+    public boolean isHidden(int id, UUID worldID)
+    {
+        return isHidden(id);
+    }
+    
+    /**
+     * Subscribes to every metadata change, delivered once per tick in a batch per world
+     * Changes made through this API are included, as are chunks with metadata loading and unloading
+     * @param listener the listener to call with the changes
+     */
+    public void subscribe(@NotNull MetadataChangeListener listener)
+    {
+        changes.subscribe(listener, null, null);
+    }
+    
+    /**
+     * Subscribes to the metadata changes inside a region, delivered once per tick
+     * Blocks are inside the region if their center is; chunks are if they overlap it
+     * @param listener the listener to call with the changes
+     * @param world the world of the region
+     * @param region the region to receive changes for, such as a chunk's bounds
+     */
+    public void subscribe(@NotNull MetadataChangeListener listener, @NotNull World world, @NotNull BoundingBox region)
+    {
+        changes.subscribe(listener, world, region);
+    }
+    
+    /**
+     * Removes every subscription of a listener
+     * @param listener the listener to unsubscribe
+     */
+    public void unsubscribe(@NotNull MetadataChangeListener listener)
+    {
+        changes.unsubscribe(listener);
     }
     
     /**
@@ -186,10 +455,7 @@ public class PersistentBlockMetadataAPI implements Listener
      */
     public NamespacedKey keyFor(@NotNull Block block)
     {
-        return new NamespacedKey(plugin,
-                (block.getX() - (block.getChunk().getX() * 16))
-                + "_" + block.getY() + "_" +
-                (block.getZ() - (block.getChunk().getZ() * 16)));
+        return keyCache.get(BlockKey.pack(block.getX(), block.getY(), block.getZ()));
     }
     
     /**
@@ -199,248 +465,1458 @@ public class PersistentBlockMetadataAPI implements Listener
      */
     public boolean has(@NotNull Block block)
     {
-        if(!loadedClouds.containsKey(block.getChunk()))
-        {
-            return false;
-        }
-        return loadedClouds.get(block.getChunk()).getPersistentDataContainer().has(keyFor(block), PersistentDataType.TAG_CONTAINER);
+        return has(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+    
+    /**
+     * Checks if the block at the given position has metadata associated with it
+     * Packed values count as metadata, so a block with only packed values has metadata too
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @return true if the block has metadata
+     */
+    public boolean has(@NotNull World world, int x, int y, int z)
+    {
+        hasCalls.increment();
+        ChunkData chunkData = loaded(world, x >> 4, z >> 4);
+        return chunkData != null && chunkData.has(BlockKey.pack(x, y, z));
     }
     
     /**
      * Sets metadata on the block specified
+     * The block gets a copy of the container, so changes made to it afterwards need another set
      * @param block the block to set
      * @param value the value of the data to set
      */
     public void set(@NotNull Block block, @NotNull PersistentDataContainer value)
     {
-        if(!loadedClouds.containsKey(block.getChunk()))
-        {
-            loadedClouds.put(block.getChunk(), spawnCloud(getCloudPos(block)));
-        }
-        PersistentDataContainer data = loadedClouds.get(block.getChunk()).getPersistentDataContainer();
-        NamespacedKey blockKey = keyFor(block);
-        if(!data.has(blockKey, PersistentDataType.TAG_CONTAINER))
-        {
-            data.set(countKey, PersistentDataType.INTEGER, data.getOrDefault(countKey, PersistentDataType.INTEGER, 0) + 1);
-        }
-        data.set(keyFor(block), PersistentDataType.TAG_CONTAINER, value);
+        set(block.getWorld(), block.getX(), block.getY(), block.getZ(), value);
+    }
+    
+    /**
+     * Sets metadata on the block at the given position
+     * The block gets a copy of the container, so changes made to it afterwards need another set
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param value the value of the data to set
+     */
+    public void set(@NotNull World world, int x, int y, int z, @NotNull PersistentDataContainer value)
+    {
+        setCalls.increment();
+        ChunkData chunkData = chunkDataFor(world, x, z);
+        
+        // The caller keeps its container, so later changes to it don't reach the block without another set
+        chunkData.put(BlockKey.pack(x, y, z), copy(chunkData.getStored().newContainer(), value));
+        changes.recordBlock(world, x, y, z, MetadataChangeType.SET, null);
     }
     
     /**
      * Gets previously set metadata from the block specified or creates one if it doesn't exist
+     * Changes made to the returned container are saved with the chunk
      * @param block the block to get metadata from
      * @return the value or {@code null} if no value was mapped under the given value
      */
     public PersistentDataContainer get(@NotNull Block block)
     {
-        if(!loadedClouds.containsKey(block.getChunk()))
-        {
-            loadedClouds.put(block.getChunk(), spawnCloud(getCloudPos(block)));
-        }
-        PersistentDataContainer data = loadedClouds.get(block.getChunk()).getPersistentDataContainer();
-        NamespacedKey blockKey = keyFor(block);
-        if(!data.has(blockKey, PersistentDataType.TAG_CONTAINER))
-        {
-            data.set(countKey, PersistentDataType.INTEGER, data.getOrDefault(countKey, PersistentDataType.INTEGER, 0) + 1);
-            data.set(blockKey, PersistentDataType.TAG_CONTAINER, data.getAdapterContext().newPersistentDataContainer());
-        }
-        return data.get(blockKey, PersistentDataType.TAG_CONTAINER);
+        return get(block.getWorld(), block.getX(), block.getY(), block.getZ());
     }
     
     /**
-     * Removes metadata from the specified block
-     * @param block the block to remove metadata from
+     * Gets previously set metadata from the block at the given position or creates one if it doesn't exist
+     * Changes made to the returned container are saved with the chunk
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @return the block's metadata
      */
-    public void remove(@NotNull Block block)
+    public PersistentDataContainer get(@NotNull World world, int x, int y, int z)
     {
-        if(!loadedClouds.containsKey(block.getChunk()))
+        getCalls.increment();
+        ChunkData chunkData = chunkDataFor(world, x, z);
+        int key = BlockKey.pack(x, y, z);
+        PersistentDataContainer value = chunkData.get(key);
+        if(value == null)
         {
-            return;
+            value = chunkData.getStored().newContainer();
+            chunkData.put(key, value);
+            changes.recordBlock(world, x, y, z, MetadataChangeType.SET, null);
         }
-        AreaEffectCloud cloud = loadedClouds.get(block.getChunk());
-        PersistentDataContainer data = cloud.getPersistentDataContainer();
-        NamespacedKey blockKey = keyFor(block);
-        if(data.has(blockKey, PersistentDataType.TAG_CONTAINER))
+        else
         {
-            int count = data.getOrDefault(countKey, PersistentDataType.INTEGER, 0);
-            if(count <= 1)
-            {
-                cloud.remove();
-                loadedClouds.remove(block.getChunk());
-                if(preventSending)
-                {
-                    hiddenIDs.removeIf(cloudID -> cloudID.getWorldID() == cloud.getWorld().getUID() && cloudID.getId() == cloud.getEntityId());
-                }
-            }
-            else
-            {
-                data.remove(blockKey);
-                data.set(countKey, PersistentDataType.INTEGER, count - 1);
-            }
-            
+            // The container is handed out and may be modified so it gets written back on the next flush
+            chunkData.markDirty(key);
         }
+        return value;
     }
     
     /**
-     * Gets the raw tags of a container
-     * @param container the container to get the raw tags for
-     * @return a map of string keys to raw tags
+     * Gets previously set metadata from the block specified without creating it if it doesn't exist
+     * Unlike {@link #get(Block)} the container isn't written back, so use {@link #get(Block)} or {@link #set(Block, PersistentDataContainer)}
+     * to change it
+     * @param block the block to get metadata from
+     * @return the block's metadata or {@code null} if it has none
      */
-    public static Map<String, Object> getRawTags(@NotNull PersistentDataContainer container)
+    public PersistentDataContainer peek(@NotNull Block block)
     {
-        Map<String, Object> map;
-        try
-        {
-            map = (Map<String, Object>) getRawHandle.invoke(container);
-        }
-        catch(Throwable throwable)
-        {
-            throwable.printStackTrace();
-            return new HashMap<>();
-        }
-        return map;
+        return peek(block.getWorld(), block.getX(), block.getY(), block.getZ());
     }
     
     /**
-     * Gets a set of string keys (including namespace) stored on a PersistentDataContainer
-     * @param container the container to get the keys for
-     * @return the set of keys stored on the container
+     * Gets previously set metadata from the block at the given position without creating it if it doesn't exist
+     * Unlike {@link #get(World, int, int, int)} the container isn't written back,
+     * so use {@link #get(World, int, int, int)} or {@link #set(World, int, int, int, PersistentDataContainer)} to change it
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @return the block's metadata or {@code null} if it has none
      */
-    public static Set<String> getKeys(@NotNull PersistentDataContainer container)
+    public PersistentDataContainer peek(@NotNull World world, int x, int y, int z)
     {
-        return getRawTags(container).keySet();
+        getCalls.increment();
+        ChunkData chunkData = loaded(world, x >> 4, z >> 4);
+        return chunkData == null ? null : chunkData.get(BlockKey.pack(x, y, z));
     }
     
     /**
-     * Gets a set of blocks that have metadata stored
-     * @param chunk the chunk to check
-     * @return a set of blocks that have metadata stored
+     * Gets an int stored in the metadata of the block specified, without creating the metadata if it doesn't exist
+     * @param block the block to get the value from
+     * @param key the key of the value
+     * @param defaultValue the value returned if the block has no int under the key
+     * @return the stored value or the default value
      */
-    public Set<Block> getMetadataLocations(@NotNull Chunk chunk)
+    public int getInt(@NotNull Block block, @NotNull NamespacedKey key, int defaultValue)
     {
-        if(!loadedClouds.containsKey(chunk))
-        {
-            return null;
-        }
-        Set<String> keys = getKeys(loadedClouds.get(chunk).getPersistentDataContainer());
-        Set<Block> blocks = new HashSet<>();
-        for(String key : keys)
-        {
-            if(key.contains("_"))
-            {
-                String after = key.split(":")[1];
-                String[] parts = after.split("_");
-                blocks.add(new Location(chunk.getWorld(),
-                        Integer.parseInt(parts[0]) + (chunk.getX() * 16),
-                        Integer.parseInt(parts[1]),
-                        Integer.parseInt(parts[2]) + (chunk.getZ() * 16)).getBlock());
-            }
-        }
-        return blocks;
+        return getInt(block.getWorld(), block.getX(), block.getY(), block.getZ(), key, defaultValue);
     }
     
     /**
-     * Checks the chunk for area effect clouds and adds
-     * @param chunk the chunk to check
+     * Gets an int stored in the metadata of the block at the given position, without creating the metadata if it doesn't exist
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param key the key of the value
+     * @param defaultValue the value returned if the block has no int under the key
+     * @return the stored value or the default value
      */
-    private void checkChunk(Chunk chunk)
+    public int getInt(@NotNull World world, int x, int y, int z, @NotNull NamespacedKey key, int defaultValue)
     {
-        // Search for an area effect cloud for storing data
-        for(Entity e : chunk.getEntities())
-        {
-            if(e.getType() == EntityType.AREA_EFFECT_CLOUD)
-            {
-                PersistentDataContainer container = e.getPersistentDataContainer();
-                if(container.has(countKey, PersistentDataType.INTEGER))
-                {
-                    // Check if there's data and warn if there isn't
-                    if(getKeys(container).size() == 1)
-                    {
-                        Bukkit.getLogger().warning("Cloud at " + chunk.getX() + " " + chunk.getZ() +
-                                " has a key size of only 1! (metacount is " + container.get(countKey, PersistentDataType.INTEGER) + ")");
-                    }
-                    loadedClouds.put(chunk, (AreaEffectCloud) e);
-                    if(preventSending)
-                    {
-                        hiddenIDs.add(new CloudID(e.getEntityId(), e.getWorld().getUID()));
-                    }
-    
-                    if(loadUnloadTypeChecker != null)
-                    {
-                        for(Block block : getMetadataLocations(chunk))
-                        {
-                            if(loadUnloadTypeChecker.shouldRemove(block, get(block)))
-                            {
-                                remove(block);
-                            }
-                        }
-                    }
-                    
-                    break;
-                }
-            }
-        }
+        Integer value = getValue(world, x, y, z, key, PersistentDataType.INTEGER);
+        return value == null ? defaultValue : value;
     }
     
-    // Priority low so regular listeners can query metadata at normal priority
-    // and LOWEST listeners can still cancel the event
-    @EventHandler(ignoreCancelled = true, priority = EventPriority.LOW)
-    private void onChunkLoad(ChunkLoadEvent event)
+    /**
+     * Stores an int in the metadata of the block specified, creating the metadata if it doesn't exist
+     * @param block the block to store the value on
+     * @param key the key of the value
+     * @param value the value to store
+     */
+    public void setInt(@NotNull Block block, @NotNull NamespacedKey key, int value)
     {
-        checkChunk(event.getChunk());
+        setInt(block.getWorld(), block.getX(), block.getY(), block.getZ(), key, value);
     }
     
-    // Priority monitor so regular listeners can query metadata at normal priority
-    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
-    private void onChunkUnload(ChunkUnloadEvent event)
+    /**
+     * Stores an int in the metadata of the block at the given position, creating the metadata if it doesn't exist
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param key the key of the value
+     * @param value the value to store
+     */
+    public void setInt(@NotNull World world, int x, int y, int z, @NotNull NamespacedKey key, int value)
     {
-        // "top off" the cloud timer and remove it from the map
-        if(loadedClouds.containsKey(event.getChunk()))
-        {
-            AreaEffectCloud cloud = loadedClouds.get(event.getChunk());
-            if(loadUnloadTypeChecker != null)
-            {
-                for(Block block : getMetadataLocations(event.getChunk()))
-                {
-                    if(loadUnloadTypeChecker.shouldRemove(block, get(block)))
-                    {
-                        remove(block);
-                    }
-                }
-                
-                // Check if *all* data was removed
-                if(!loadedClouds.containsKey(event.getChunk()))
-                {
-                    return;
-                }
-            }
-            if(getKeys(cloud.getPersistentDataContainer()).size() == 1)
-            {
-                Bukkit.getLogger().warning("Cloud at " + event.getChunk().getX() + " " + event.getChunk().getZ() +
-                        " has a key size of only 1! (metacount is " +
-                        cloud.getPersistentDataContainer().get(countKey, PersistentDataType.INTEGER) + ")");
-            }
-            cloud.setTicksLived(1);
-            if(preventSending)
-            {
-                hiddenIDs.removeIf(cloudID -> cloudID.getWorldID() == cloud.getWorld().getUID() && cloudID.getId() == cloud.getEntityId());
-            }
-            loadedClouds.remove(event.getChunk());
-        }
+        setValue(world, x, y, z, key, PersistentDataType.INTEGER, value);
     }
     
-    @EventHandler
-    private void onPluginEnable(PluginEnableEvent event)
-    {
-        if(preventSending && !sendPreventionReady && event.getPlugin().getName().equals("ProtocolLib"))
+    /**
+     * Gets a long stored in the metadata of the block specified, without creating the metadata if it doesn't exist
+     * @param block the block to get the value from
+     * @param key the key of the value
+     * @param defaultValue the value returned if the block has no long under the key
+     * @return the stored value or the default value
+     */
+    public long getLong(@NotNull Block block, @NotNull NamespacedKey key, long defaultValue)
+    {
+        return getLong(block.getWorld(), block.getX(), block.getY(), block.getZ(), key, defaultValue);
+    }
+    
+    /**
+     * Gets a long stored in the metadata of the block at the given position, without creating the metadata if it doesn't exist
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param key the key of the value
+     * @param defaultValue the value returned if the block has no long under the key
+     * @return the stored value or the default value
+     */
+    public long getLong(@NotNull World world, int x, int y, int z, @NotNull NamespacedKey key, long defaultValue)
+    {
+        Long value = getValue(world, x, y, z, key, PersistentDataType.LONG);
+        return value == null ? defaultValue : value;
+    }
+    
+    /**
+     * Stores a long in the metadata of the block specified, creating the metadata if it doesn't exist
+     * @param block the block to store the value on
+     * @param key the key of the value
+     * @param value the value to store
+     */
+    public void setLong(@NotNull Block block, @NotNull NamespacedKey key, long value)
+    {
+        setLong(block.getWorld(), block.getX(), block.getY(), block.getZ(), key, value);
+    }
+    
+    /**
+     * Stores a long in the metadata of the block at the given position, creating the metadata if it doesn't exist
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param key the key of the value
+     * @param value the value to store
+     */
+    public void setLong(@NotNull World world, int x, int y, int z, @NotNull NamespacedKey key, long value)
+    {
+        setValue(world, x, y, z, key, PersistentDataType.LONG, value);
+    }
+    
+    /**
+     * Gets a byte array stored in the metadata of the block specified, without creating the metadata if it doesn't exist
+     * @param block the block to get the value from
+     * @param key the key of the value
+     * @return the stored value or {@code null} if the block has no byte array under the key
+     */
+    public byte[] getByteArray(@NotNull Block block, @NotNull NamespacedKey key)
+    {
+        return getByteArray(block.getWorld(), block.getX(), block.getY(), block.getZ(), key);
+    }
+    
+    /**
+     * Gets a byte array stored in the metadata of the block at the given position, without creating the metadata if it doesn't exist
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param key the key of the value
+     * @return the stored value or {@code null} if the block has no byte array under the key
+     */
+    public byte[] getByteArray(@NotNull World world, int x, int y, int z, @NotNull NamespacedKey key)
+    {
+        return getValue(world, x, y, z, key, PersistentDataType.BYTE_ARRAY);
+    }
+    
+    /**
+     * Stores a byte array in the metadata of the block specified, creating the metadata if it doesn't exist
+     * @param block the block to store the value on
+     * @param key the key of the value
+     * @param value the value to store
+     */
+    public void setByteArray(@NotNull Block block, @NotNull NamespacedKey key, @NotNull byte[] value)
+    {
+        setByteArray(block.getWorld(), block.getX(), block.getY(), block.getZ(), key, value);
+    }
+    
+    /**
+     * Stores a byte array in the metadata of the block at the given position, creating the metadata if it doesn't exist
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param key the key of the value
+     * @param value the value to store
+     */
+    public void setByteArray(@NotNull World world, int x, int y, int z, @NotNull NamespacedKey key, @NotNull byte[] value)
+    {
+        setValue(world, x, y, z, key, PersistentDataType.BYTE_ARRAY, value);
+    }
+    
+    // A value stored under the key with another type counts as missing instead of throwing
+    private <T> T getValue(World world, int x, int y, int z, NamespacedKey key, PersistentDataType<?, T> type)
+    {
+        PersistentDataContainer container = peek(world, x, y, z);
+        return container == null || !container.has(key, type) ? null : container.get(key, type);
+    }
+    
+    private <T> void setValue(World world, int x, int y, int z, NamespacedKey key, PersistentDataType<?, T> type, T value)
+    {
+        setCalls.increment();
+        ChunkData chunkData = chunkDataFor(world, x, z);
+        int blockKey = BlockKey.pack(x, y, z);
+        PersistentDataContainer container = chunkData.get(blockKey);
+        if(container == null)
+        {
+            container = chunkData.getStored().newContainer();
+        }
+        container.set(key, type, value);
+        chunkData.put(blockKey, container);
+        changes.recordBlock(world, x, y, z, MetadataChangeType.SET, null);
+    }
+    
+    /**
+     * Removes metadata from the specified block
+     * @param block the block to remove metadata from
+     */
+    public void remove(@NotNull Block block)
+    {
+        remove(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+    
+    /**
+     * Removes metadata from the block at the given position, along with its packed values
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     */
+    public void remove(@NotNull World world, int x, int y, int z)
+    {
+        removeCalls.increment();
+        ChunkData chunkData = loaded(world, x >> 4, z >> 4);
+        if(chunkData == null || !removeBlock(chunkData, BlockKey.pack(x, y, z)))
+        {
+            return;
+        }
+        changes.recordBlock(world, x, y, z, MetadataChangeType.REMOVE, null);
+        if(chunkData.isEmpty())
+        {
+            removeChunkData(chunkData);
+        }
+    }
+    
+    private static boolean removeBlock(ChunkData chunkData, int key)
+    {
+        boolean removed = chunkData.remove(key);
+        return chunkData.removePacked(key) || removed;
+    }
+    
+    private void removeChunkData(ChunkData chunkData)
+    {
+        chunkData.getStored().delete();
+        loadedChunks.remove(chunkData);
+        chunkIndex.update(chunkData.getWorld(), chunkData.getX(), chunkData.getZ(), 0);
+    }
+    
+    /**
+     * Gets the table of a codec in a chunk, fitting it to the codec's columns
+     * @param chunkData the chunk to get the table from
+     * @param codec the codec of the table
+     * @param create if an empty table should be created when the chunk has none
+     * @return the table or {@code null} if the chunk has none and it wasn't created
+     */
+    private static PackedTable packedTable(ChunkData chunkData, PackedCodec<?> codec, boolean create)
+    {
+        PackedTable table = chunkData.getPackedTable(codec.getName());
+        if(table != null)
+        {
+            table.fit(codec);
+        }
+        else if(create)
+        {
+            table = new PackedTable(codec);
+            chunkData.putPackedTable(codec.getName(), table);
+        }
+        return table;
+    }
+    
+    /**
+     * Decodes every table of the stored packed columns of a chunk that the chunk doesn't have yet
+     * @param chunkData the chunk the columns were read for
+     * @param packed the stored columns or {@code null} if there are none
+     */
+    private void loadPacked(ChunkData chunkData, PersistentDataContainer packed)
+    {
+        if(packed == null)
+        {
+            return;
+        }
+        if(chunkData.getPacked() == null)
+        {
+            chunkData.setPacked(packed);
+        }
+        for(String key : getKeys(packed))
+        {
+            if(!key.startsWith(packedPrefix))
+            {
+                continue;
+            }
+            String name = key.substring(packedPrefix.length());
+            PersistentDataContainer columns = packed.get(new NamespacedKey(plugin, name), PersistentDataType.TAG_CONTAINER);
+            if(columns != null && chunkData.getPackedTable(name) == null)
+            {
+                chunkData.putPackedTable(name, PackedTable.decode(plugin, name, columns));
+            }
+        }
+    }
+    
+    /**
+     * Checks if the block has a packed value of a codec
+     * @param block the block to check
+     * @param codec the codec of the value
+     * @return true if the block has a value
+     */
+    public boolean hasPacked(@NotNull Block block, @NotNull PackedCodec<?> codec)
+    {
+        return hasPacked(block.getWorld(), block.getX(), block.getY(), block.getZ(), codec);
+    }
+    
+    /**
+     * Checks if the block at the given position has a packed value of a codec
+     * Must be called on the main thread
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param codec the codec of the value
+     * @return true if the block has a value
+     */
+    public boolean hasPacked(@NotNull World world, int x, int y, int z, @NotNull PackedCodec<?> codec)
+    {
+        checkPackedThread();
+        ChunkData chunkData = loaded(world, x >> 4, z >> 4);
+        PackedTable table = chunkData == null ? null : packedTable(chunkData, codec, false);
+        return table != null && table.indexOf(BlockKey.pack(x, y, z)) >= 0;
+    }
+    
+    /**
+     * Gets the packed value of a codec from the block specified
+     * Packed values are kept apart from the block's container but are moved and removed along with it
+     * @param block the block to get the value from
+     * @param codec the codec of the value
+     * @param <T> the type of the value
+     * @return the value or {@code null} if the block has none
+     */
+    public <T> T getPacked(@NotNull Block block, @NotNull PackedCodec<T> codec)
+    {
+        return getPacked(block.getWorld(), block.getX(), block.getY(), block.getZ(), codec);
+    }
+    
+    /**
+     * Gets the packed value of a codec from the block at the given position
+     * Must be called on the main thread
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param codec the codec of the value
+     * @param <T> the type of the value
+     * @return the value or {@code null} if the block has none
+     */
+    public <T> T getPacked(@NotNull World world, int x, int y, int z, @NotNull PackedCodec<T> codec)
+    {
+        checkPackedThread();
+        ChunkData chunkData = loaded(world, x >> 4, z >> 4);
+        PackedTable table = chunkData == null ? null : packedTable(chunkData, codec, false);
+        if(table == null)
+        {
+            return null;
+        }
+        int index = table.indexOf(BlockKey.pack(x, y, z));
+        return index < 0 ? null : codec.read(table.at(index));
+    }
+    
+    /**
+     * Sets the packed value of a codec on the block specified
+     * Values of one codec are stored per chunk as one array per column, which is far smaller than a container per block
+     * @param block the block to set
+     * @param codec the codec of the value
+     * @param value the value to set
+     * @param <T> the type of the value
+     */
+    public <T> void setPacked(@NotNull Block block, @NotNull PackedCodec<T> codec, @NotNull T value)
+    {
+        setPacked(block.getWorld(), block.getX(), block.getY(), block.getZ(), codec, value);
+    }
+    
+    /**
+     * Sets the packed value of a codec on the block at the given position
+     * Must be called on the main thread
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param codec the codec of the value
+     * @param value the value to set
+     * @param <T> the type of the value
+     */
+    public <T> void setPacked(@NotNull World world, int x, int y, int z, @NotNull PackedCodec<T> codec, @NotNull T value)
+    {
+        checkPackedThread();
+        ChunkData chunkData = chunkDataFor(world, x, z);
+        PackedTable table = packedTable(chunkData, codec, true);
+        codec.write(value, table.at(chunkData.insertPacked(table, BlockKey.pack(x, y, z))));
+    }
+    
+    /**
+     * Removes the packed value of a codec from the block specified
+     * @param block the block to remove the value from
+     * @param codec the codec of the value
+     */
+    public void removePacked(@NotNull Block block, @NotNull PackedCodec<?> codec)
+    {
+        removePacked(block.getWorld(), block.getX(), block.getY(), block.getZ(), codec);
+    }
+    
+    /**
+     * Removes the packed value of a codec from the block at the given position
+     * Must be called on the main thread
+     * @param world the world the block is in
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block
+     * @param codec the codec of the value
+     */
+    public void removePacked(@NotNull World world, int x, int y, int z, @NotNull PackedCodec<?> codec)
+    {
+        checkPackedThread();
+        ChunkData chunkData = loaded(world, x >> 4, z >> 4);
+        PackedTable table = chunkData == null ? null : packedTable(chunkData, codec, false);
+        if(table == null || !chunkData.removePacked(table, BlockKey.pack(x, y, z)))
+        {
+            return;
+        }
+        if(chunkData.isEmpty())
+        {
+            removeChunkData(chunkData);
+        }
+    }
+    
+    // Tables are changed in place, so only the main thread may read them; has() checks for packed values from any thread
+    private static void checkPackedThread()
+    {
+        if(!Bukkit.isPrimaryThread())
+        {
+            throw new IllegalStateException("Packed values can only be used on the main thread");
+        }
+    }
+    
+    private static boolean isChunk(ChunkData chunkData, World world, int chunkX, int chunkZ)
+    {
+        return chunkData.getWorld() == world && chunkData.getX() == chunkX && chunkData.getZ() == chunkZ;
+    }
+    
+    // Blocks passed to the batch methods are usually clustered, so the previous chunk is reused when it matches
+    private ChunkData lookup(ChunkData previous, World world, int chunkX, int chunkZ)
+    {
+        if(previous != null && isChunk(previous, world, chunkX, chunkZ))
+        {
+            return previous;
+        }
+        return loaded(world, chunkX, chunkZ);
+    }
+    
+    /**
+     * Checks if every block has metadata associated with it
+     * @param blocks the blocks to check
+     * @return true if all of the blocks have metadata
+     */
+    public boolean hasAll(@NotNull Collection<Block> blocks)
+    {
+        ChunkData chunkData = null;
+        for(Block block : blocks)
+        {
+            chunkData = lookup(chunkData, block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+            if(chunkData == null || !chunkData.has(BlockKey.pack(block.getX(), block.getY(), block.getZ())))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Gets the blocks that have metadata associated with them
+     * @param blocks the blocks to check
+     * @return a list of the blocks with metadata, grouped by chunk
+     */
+    public List<Block> getTracked(@NotNull Collection<Block> blocks)
+    {
+        // Explosions list blocks in ray order, which jumps between the few chunks they cover
+        List<ChunkData> chunks = new ArrayList<>();
+        List<List<Block>> groups = new ArrayList<>();
+        ChunkData chunkData = null;
+        List<Block> group = null;
+        for(Block block : blocks)
+        {
+            World world = block.getWorld();
+            int chunkX = block.getX() >> 4;
+            int chunkZ = block.getZ() >> 4;
+            if(chunkData == null || !isChunk(chunkData, world, chunkX, chunkZ))
+            {
+                chunkData = null;
+                for(int i = 0; i < chunks.size(); i++)
+                {
+                    if(isChunk(chunks.get(i), world, chunkX, chunkZ))
+                    {
+                        chunkData = chunks.get(i);
+                        group = groups.get(i);
+                        break;
+                    }
+                }
+                if(chunkData == null)
+                {
+                    chunkData = loaded(world, chunkX, chunkZ);
+                    if(chunkData == null)
+                    {
+                        continue;
+                    }
+                    group = new ArrayList<>();
+                    chunks.add(chunkData);
+                    groups.add(group);
+                }
+            }
+            if(chunkData.has(BlockKey.pack(block.getX(), block.getY(), block.getZ())))
+            {
+                group.add(block);
+            }
+        }
+        
+        List<Block> tracked = new ArrayList<>();
+        for(List<Block> chunkBlocks : groups)
+        {
+            tracked.addAll(chunkBlocks);
+        }
+        return tracked;
+    }
+    
+    /**
+     * Removes metadata from all of the specified blocks
+     * Clouds left without data are removed once at the end instead of per block
+     * @param blocks the blocks to remove metadata from
+     */
+    public void removeAll(@NotNull Collection<Block> blocks)
+    {
+        Set<ChunkData> changed = new HashSet<>();
+        ChunkData chunkData = null;
+        for(Block block : blocks)
+        {
+            chunkData = lookup(chunkData, block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+            if(chunkData != null && removeBlock(chunkData, BlockKey.pack(block.getX(), block.getY(), block.getZ())))
+            {
+                changed.add(chunkData);
+                changes.recordBlock(block.getWorld(), block.getX(), block.getY(), block.getZ(), MetadataChangeType.REMOVE, null);
+            }
+        }
+        for(ChunkData data : changed)
+        {
+            if(data.isEmpty())
+            {
+                removeChunkData(data);
+            }
+        }
+    }
+    
+    /**
+     * Moves the metadata of all of the specified blocks one block in a direction
+     * Every block is lifted before any is placed, so chains of blocks moving into each other's positions keep their own data
+     * no matter the order they are given in. Containers are moved as they are, without being copied, and packed values move with them
+     * @param blocks the blocks to move
+     * @param direction the direction to move the blocks in
+     */
+    @SuppressWarnings("unchecked")
+    public void moveAll(@NotNull Collection<Block> blocks, @NotNull BlockFace direction)
+    {
+        int count = 0;
+        ChunkData[] sources = new ChunkData[blocks.size()];
+        int[] keys = new int[blocks.size()];
+        PersistentDataContainer[] values = new PersistentDataContainer[blocks.size()];
+        Map<String, PackedTable>[] rows = new Map[blocks.size()];
+        ChunkData chunkData = null;
+        for(Block block : blocks)
+        {
+            chunkData = lookup(chunkData, block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+            if(chunkData == null)
+            {
+                continue;
+            }
+            int key = BlockKey.pack(block.getX(), block.getY(), block.getZ());
+            PersistentDataContainer value = chunkData.get(key);
+            if(value != null)
+            {
+                chunkData.remove(key);
+            }
+            Map<String, PackedTable> packed = chunkData.liftPacked(key);
+            if(value != null || packed != null)
+            {
+                sources[count] = chunkData;
+                keys[count] = key;
+                values[count] = value;
+                rows[count] = packed;
+                count++;
+                changes.recordBlock(chunkData, key, MetadataChangeType.REMOVE);
+            }
+        }
+        
+        // Destinations are found from the source chunk and key, so no blocks are created for them
+        chunkData = null;
+        for(int i = 0; i < count; i++)
+        {
+            ChunkData source = sources[i];
+            World world = source.getWorld();
+            int x = (source.getX() << 4) + BlockKey.x(keys[i]) + direction.getModX();
+            int y = BlockKey.y(keys[i]) + direction.getModY();
+            int z = (source.getZ() << 4) + BlockKey.z(keys[i]) + direction.getModZ();
+            chunkData = lookup(chunkData, world, x >> 4, z >> 4);
+            if(chunkData == null)
+            {
+                chunkData = chunkDataFor(world, x, z);
+            }
+            int key = BlockKey.pack(x, y, z);
+            if(values[i] != null)
+            {
+                chunkData.put(key, values[i]);
+            }
+            if(rows[i] != null)
+            {
+                chunkData.placePacked(key, rows[i]);
+            }
+            changes.recordBlock(world, x, y, z, MetadataChangeType.MOVE, direction);
+        }
+        
+        // Sources are checked last since a chunk emptied by the lift may have been filled again
+        for(int i = 0; i < count; i++)
+        {
+            ChunkData source = sources[i];
+            if(source.isEmpty() && loadedChunks.get(source.getWorld(), source.getX(), source.getZ()) == source)
+            {
+                removeChunkData(source);
+            }
+        }
+    }
+    
+    /**
+     * Gets all blocks with metadata inside a region of loaded chunks
+     * A block is inside the region if its center is; changes made to the returned containers are saved with the chunk
+     * Blocks with only packed values have no container and are left out
+     * @param world the world to search in
+     * @param region the region to search
+     * @return a map of the blocks with metadata to their metadata
+     */
+    public Map<Block, PersistentDataContainer> getRegion(@NotNull World world, @NotNull BoundingBox region)
+    {
+        Map<Block, PersistentDataContainer> result = new HashMap<>();
+        visitKeys(world, (int) Math.floor(region.getMinX()), (int) Math.floor(region.getMinY()), (int) Math.floor(region.getMinZ()),
+                (int) Math.floor(region.getMaxX()), (int) Math.floor(region.getMaxY()), (int) Math.floor(region.getMaxZ()),
+                (chunkData, key) ->
+        {
+            int x = (chunkData.getX() << 4) | BlockKey.x(key);
+            int y = BlockKey.y(key);
+            int z = (chunkData.getZ() << 4) | BlockKey.z(key);
+            PersistentDataContainer container = chunkData.get(key);
+            if(container != null && region.contains(x + 0.5, y + 0.5, z + 0.5))
+            {
+                chunkData.markDirty(key);
+                result.put(world.getBlockAt(x, y, z), container);
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * Visits all blocks with metadata inside a region of loaded chunks
+     * A block is inside the region if its center is. The visitor must not add or remove metadata
+     * @param world the world to search in
+     * @param region the region to search
+     * @param visitor called with each block inside the region
+     */
+    public void forEachInBox(@NotNull World world, @NotNull BoundingBox region, @NotNull BlockVisitor visitor)
+    {
+        visitKeys(world, (int) Math.floor(region.getMinX()), (int) Math.floor(region.getMinY()), (int) Math.floor(region.getMinZ()),
+                (int) Math.floor(region.getMaxX()), (int) Math.floor(region.getMaxY()), (int) Math.floor(region.getMaxZ()),
+                (chunkData, key) ->
+        {
+            int x = (chunkData.getX() << 4) | BlockKey.x(key);
+            int y = BlockKey.y(key);
+            int z = (chunkData.getZ() << 4) | BlockKey.z(key);
+            if(region.contains(x + 0.5, y + 0.5, z + 0.5))
+            {
+                visitor.visit(world, x, y, z);
+            }
+        });
+    }
+    
+    /**
+     * Visits all blocks with metadata within a distance of a point in loaded chunks
+     * A block is within the distance if its center is. The visitor must not add or remove metadata
+     * @param world the world to search in
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @param z the z coordinate of the point
+     * @param radius the distance from the point
+     * @param visitor called with each block within the distance
+     */
+    public void forEachInRadius(@NotNull World world, double x, double y, double z, double radius, @NotNull BlockVisitor visitor)
+    {
+        double radiusSquared = radius * radius;
+        visitKeys(world, (int) Math.floor(x - radius), (int) Math.floor(y - radius), (int) Math.floor(z - radius),
+                (int) Math.floor(x + radius), (int) Math.floor(y + radius), (int) Math.floor(z + radius),
+                (chunkData, key) ->
+        {
+            int blockX = (chunkData.getX() << 4) | BlockKey.x(key);
+            int blockY = BlockKey.y(key);
+            int blockZ = (chunkData.getZ() << 4) | BlockKey.z(key);
+            if(distanceSquared(blockX, blockY, blockZ, x, y, z) <= radiusSquared)
+            {
+                visitor.visit(world, blockX, blockY, blockZ);
+            }
+        });
+    }
+    
+    /**
+     * Finds the block with metadata closest to a point in loaded chunks, measured from block centers
+     * @param world the world to search in
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @param z the z coordinate of the point
+     * @param maxDistance the maximum distance from the point
+     * @param visitor called with the closest block if there is one
+     * @return true if a block was found
+     */
+    public boolean findNearest(@NotNull World world, double x, double y, double z, double maxDistance, @NotNull BlockVisitor visitor)
+    {
+        Nearest nearest = new Nearest(x, y, z, maxDistance * maxDistance);
+        int centerX = ((int) Math.floor(x)) >> 4;
+        int centerZ = ((int) Math.floor(z)) >> 4;
+        long maxRing = ((long) Math.ceil(maxDistance) >> 4) + 1;
+        if(maxRing * 2 + 1 > Math.sqrt(loadedChunks.size(world.getUID()) + ingestQueue.size()))
+        {
+            // Rings past the farthest chunk with metadata are empty, which also ends searches without a maximum distance
+            ingestQueued(world);
+            int[] farthest = {0};
+            loadedChunks.forEach(world.getUID(), chunkData -> farthest[0] = Math.max(farthest[0],
+                    Math.max(Math.abs(chunkData.getX() - centerX), Math.abs(chunkData.getZ() - centerZ))));
+            maxRing = Math.min(maxRing, farthest[0]);
+        }
+        for(int ring = 0; ring <= maxRing; ring++)
+        {
+            // Chunks in a ring are at least this far from any point in the center chunk, so searching stops
+            // once they can't beat the closest block found so far
+            double ringDistance = Math.max(ring - 1, 0) * 16.0;
+            if(ringDistance * ringDistance > nearest.distanceSquared)
+            {
+                break;
+            }
+            for(int dx = -ring; dx <= ring; dx++)
+            {
+                int step = (dx == -ring || dx == ring) ? 1 : ring * 2;
+                for(int dz = -ring; dz <= ring; dz += step)
+                {
+                    ChunkData chunkData = loaded(world, centerX + dx, centerZ + dz);
+                    if(chunkData != null)
+                    {
+                        double distance = Math.sqrt(nearest.distanceSquared);
+                        visitKeys(chunkData, (int) Math.floor(x - distance), (int) Math.floor(y - distance), (int) Math.floor(z - distance),
+                                (int) Math.floor(x + distance), (int) Math.floor(y + distance), (int) Math.floor(z + distance), nearest);
+                    }
+                }
+            }
+        }
+        if(nearest.chunkData == null)
+        {
+            return false;
+        }
+        visitor.visit(world, (nearest.chunkData.getX() << 4) | BlockKey.x(nearest.key), BlockKey.y(nearest.key),
+                (nearest.chunkData.getZ() << 4) | BlockKey.z(nearest.key));
+        return true;
+    }
+    
+    private static double distanceSquared(int blockX, int blockY, int blockZ, double x, double y, double z)
+    {
+        double dx = blockX + 0.5 - x;
+        double dy = blockY + 0.5 - y;
+        double dz = blockZ + 0.5 - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+    
+    /**
+     * Visits a block key of a chunk found by a spatial query
+     */
+    private interface KeyVisitor
+    {
+        void visit(ChunkData chunkData, int key);
+    }
+    
+    private static final class Nearest implements KeyVisitor
+    {
+        private final double x;
+        private final double y;
+        private final double z;
+        private double distanceSquared;
+        private ChunkData chunkData = null;
+        private int key;
+        
+        private Nearest(double x, double y, double z, double distanceSquared)
+        {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.distanceSquared = distanceSquared;
+        }
+        
+        @Override
+        public void visit(ChunkData chunkData, int key)
+        {
+            double distance = distanceSquared((chunkData.getX() << 4) | BlockKey.x(key), BlockKey.y(key),
+                    (chunkData.getZ() << 4) | BlockKey.z(key), x, y, z);
+            if(distance <= distanceSquared)
+            {
+                distanceSquared = distance;
+                this.chunkData = chunkData;
+                this.key = key;
+            }
+        }
+    }
+    
+    /**
+     * Visits the block keys in every loaded chunk of a box of block coordinates, bounds included
+     * Boxes covering more chunks than have metadata go through those chunks instead, so unbounded boxes end as well
+     */
+    private void visitKeys(World world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ, KeyVisitor visitor)
+    {
+        int minChunkX = minX >> 4;
+        int minChunkZ = minZ >> 4;
+        int maxChunkX = maxX >> 4;
+        int maxChunkZ = maxZ >> 4;
+        long area = ((long) maxChunkX - minChunkX + 1) * ((long) maxChunkZ - minChunkZ + 1);
+        if(area > loadedChunks.size(world.getUID()) + ingestQueue.size())
+        {
+            ingestQueued(world);
+            loadedChunks.forEach(world.getUID(), registered ->
+            {
+                if(registered.getX() >= minChunkX && registered.getX() <= maxChunkX &&
+                        registered.getZ() >= minChunkZ && registered.getZ() <= maxChunkZ)
+                {
+                    // Looked up again since a pending type check may remove it
+                    ChunkData chunkData = loaded(world, registered.getX(), registered.getZ());
+                    if(chunkData != null)
+                    {
+                        visitKeys(chunkData, minX, minY, minZ, maxX, maxY, maxZ, visitor);
+                    }
+                }
+            });
+            return;
+        }
+        for(int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++)
+        {
+            for(int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++)
+            {
+                ChunkData chunkData = loaded(world, chunkX, chunkZ);
+                if(chunkData != null)
+                {
+                    visitKeys(chunkData, minX, minY, minZ, maxX, maxY, maxZ, visitor);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Decodes the queued chunks of a world ahead of their turn, so queries can go through the registered chunks alone
+     * @param world the world of the chunks
+     */
+    private void ingestQueued(World world)
+    {
+        if(!Bukkit.isPrimaryThread() || ingestQueue.isEmpty())
+        {
+            return;
+        }
+        for(ChunkData chunkData : ingestQueue.take(world))
+        {
+            if(world.isChunkLoaded(chunkData.getX(), chunkData.getZ()))
+            {
+                ingest(chunkData);
+            }
+            else
+            {
+                chunkData.getStored().unload();
+            }
+        }
+    }
+    
+    /**
+     * Visits the block keys of one chunk inside a box of block coordinates, bounds included
+     */
+    private static void visitKeys(ChunkData chunkData, int minX, int minY, int minZ, int maxX, int maxY, int maxZ, KeyVisitor visitor)
+    {
+        int baseX = chunkData.getX() << 4;
+        int baseZ = chunkData.getZ() << 4;
+        int localMinX = (int) Math.max((long) minX - baseX, 0);
+        int localMinZ = (int) Math.max((long) minZ - baseZ, 0);
+        int localMaxX = (int) Math.min((long) maxX - baseX, 15);
+        int localMaxZ = (int) Math.min((long) maxZ - baseZ, 15);
+        
+        // Coordinates from unbounded boxes don't fit in a key, so they are limited to what a key can hold
+        minY = Math.max(minY, BlockKey.MIN_Y);
+        maxY = Math.min(maxY, BlockKey.MAX_Y);
+        if(localMinX > localMaxX || localMinZ > localMaxZ || minY > maxY)
+        {
+            return;
+        }
+        
+        // Keys are sorted by layer, then row, so rows outside the box are skipped with a binary search
+        int[] index = chunkData.index();
+        int size = chunkData.indexSize();
+        int end = BlockKey.pack(localMaxX, maxY, localMaxZ);
+        int i = chunkData.indexFrom(BlockKey.pack(localMinX, minY, localMinZ));
+        while(i < size)
+        {
+            int key = index[i];
+            if(key > end)
+            {
+                break;
+            }
+            int z = BlockKey.z(key);
+            if(z > localMaxZ)
+            {
+                i = chunkData.indexFrom(BlockKey.pack(localMinX, BlockKey.y(key) + 1, localMinZ));
+                continue;
+            }
+            if(z < localMinZ)
+            {
+                i = chunkData.indexFrom(BlockKey.pack(localMinX, BlockKey.y(key), localMinZ));
+                continue;
+            }
+            int x = BlockKey.x(key);
+            if(x >= localMinX && x <= localMaxX)
+            {
+                visitor.visit(chunkData, key);
+            }
+            i++;
+        }
+    }
+    
+    /**
+     * Writes all changed metadata back to storage so it is saved with the chunks
+     * This happens automatically when chunks unload, worlds save, the plugin is disabled and every flush interval
+     */
+    public void flush()
+    {
+        loadedChunks.forEach(this::flush);
+    }
+    
+    private void flush(ChunkData chunkData)
+    {
+        if(!chunkData.isDirty())
+        {
+            return;
+        }
+        StoredChunk stored = chunkData.getStored();
+        chunkData.drainDirty((key, write) ->
+        {
+            if(write)
+            {
+                stored.set(key, chunkData.get(key));
+            }
+            else
+            {
+                stored.remove(key);
+            }
+        });
+        if(chunkData.isPackedDirty())
+        {
+            chunkData.clearPackedDirty();
+            PersistentDataContainer packed = chunkData.getPacked();
+            if(packed == null)
+            {
+                packed = stored.newContainer();
+                chunkData.setPacked(packed);
+            }
+            for(Map.Entry<String, PackedTable> entry : chunkData.getPackedTables().entrySet())
+            {
+                NamespacedKey key = new NamespacedKey(plugin, entry.getKey());
+                PackedTable table = entry.getValue();
+                if(table.size() == 0)
+                {
+                    packed.remove(key);
+                }
+                else
+                {
+                    packed.set(key, PersistentDataType.TAG_CONTAINER, table.encode(plugin, stored.newContainer()));
+                }
+            }
+            stored.setPacked(packed.isEmpty() ? null : packed);
+        }
+        stored.save(chunkData.size());
+        chunkIndex.update(chunkData.getWorld(), chunkData.getX(), chunkData.getZ(), chunkData.trackedSize());
+    }
+    
+    /**
+     * Gets the raw tags of a container
+     * @param container the container to get the raw tags for
+     * @return a map of string keys to raw tags
+     */
+    public static Map<String, Object> getRawTags(@NotNull PersistentDataContainer container)
+    {
+        Map<String, Object> map = RawTagAccessor.get(container);
+        return map == null ? new HashMap<>() : map;
+    }
+    
+    /**
+     * Gets a set of string keys (including namespace) stored on a PersistentDataContainer
+     * @param container the container to get the keys for
+     * @return the set of keys stored on the container
+     */
+    public static Set<String> getKeys(@NotNull PersistentDataContainer container)
+    {
+        // The key view of the live map is returned as is, so enumerating keys doesn't copy anything
+        Map<String, Object> map = RawTagAccessor.get(container);
+        return map == null ? Collections.emptySet() : map.keySet();
+    }
+    
+    /**
+     * Gets a set of blocks that have metadata stored
+     * @param chunk the chunk to check
+     * @return a set of blocks that have metadata stored
+     */
+    public Set<Block> getMetadataLocations(@NotNull Chunk chunk)
+    {
+        ChunkData chunkData = loaded(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        if(chunkData == null)
+        {
+            return null;
+        }
+        Set<Block> blocks = new HashSet<>();
+        chunkData.getEntries().forEach((key, value) -> blocks.add(chunk.getBlock(BlockKey.x(key), BlockKey.y(key), BlockKey.z(key))));
+        if(chunkData.getPackedTables() != null)
+        {
+            for(PackedTable table : chunkData.getPackedTables().values())
+            {
+                for(int i = 0; i < table.size(); i++)
+                {
+                    int key = table.keyAt(i);
+                    blocks.add(chunk.getBlock(BlockKey.x(key), BlockKey.y(key), BlockKey.z(key)));
+                }
+            }
+        }
+        return blocks;
+    }
+    
+    /**
+     * Visits every chunk in a world listed in the index of chunks with metadata, without loading them
+     * The index is updated as chunks are written back and is saved with the world. Unless the index is complete,
+     * chunks whose metadata hasn't loaded or changed since the index was started are missing
+     * @param world the world to visit the chunks of
+     * @param visitor called with the coordinates of each chunk and how many blocks in it have metadata
+     */
+    public void forEachTaggedChunk(@NotNull World world, @NotNull TaggedChunkVisitor visitor)
+    {
+        chunkIndex.forEach(world, visitor);
+    }
+    
+    /**
+     * Checks if the index of chunks with metadata lists every such chunk in the world
+     * Indexes of new worlds start out complete. A complete index stops being trusted after a crash, since chunks written
+     * back after the last world save may be missing from it
+     * @param world the world to check
+     * @return true if the index is complete, in which case only indexed chunks are searched for metadata when the plugin enables
+     */
+    public boolean isIndexComplete(@NotNull World world)
+    {
+        return chunkIndex.isComplete(world);
+    }
+    
+    /**
+     * Marks the index of chunks with metadata as complete
+     * For worlds from before the index existed, this should only be called once every chunk with metadata has loaded
+     * since, for example after loading the whole world with a pregeneration tool
+     * @param world the world whose index is complete
+     */
+    public void setIndexComplete(@NotNull World world)
+    {
+        chunkIndex.setComplete(world);
+    }
+    
+    /**
+     * Opens the storage of a newly loaded chunk and queues it to be decoded
+     * @param chunk the chunk to check
+     */
+    private void queueChunk(Chunk chunk)
+    {
+        long start = System.nanoTime();
+        StoredChunk stored = store.load(chunk);
+        chunkLoadNanos.add(System.nanoTime() - start);
+        chunkLoads.increment();
+        if(stored != null)
+        {
+            ingestQueue.add(new ChunkData(chunk.getWorld(), chunk.getX(), chunk.getZ(), stored));
+        }
+    }
+    
+    /**
+     * Decodes and type checks queued chunks until the tick's budget is used up
+     */
+    private void processQueues()
+    {
+        long deadline = System.nanoTime() + ingestBudget;
+        do
+        {
+            ChunkData chunkData = ingestQueue.poll();
+            if(chunkData != null)
+            {
+                if(chunkData.getWorld().isChunkLoaded(chunkData.getX(), chunkData.getZ()))
+                {
+                    ingest(chunkData);
+                }
+                else
+                {
+                    chunkData.getStored().unload();
+                }
+                continue;
+            }
+            
+            chunkData = typeChecks.poll();
+            if(chunkData == null)
+            {
+                return;
+            }
+            // Chunks checked on demand or unloaded since they were queued are skipped
+            if(chunkData.isTypeCheckPending() &&
+                    loadedChunks.get(chunkData.getWorld(), chunkData.getX(), chunkData.getZ()) == chunkData)
+            {
+                checkTypes(chunkData);
+            }
+        }
+        while(System.nanoTime() < deadline);
+    }
+    
+    /**
+     * Decodes the storage of a queued chunk and registers it, or adds it to the chunk's metadata if that is registered already
+     * @param chunkData the queued chunk
+     * @return false if the storage held no metadata and the chunk wasn't registered
+     */
+    private boolean ingest(ChunkData chunkData)
+    {
+        StoredChunk stored = chunkData.getStored();
+        ChunkData registered = loadedChunks.get(chunkData.getWorld(), chunkData.getX(), chunkData.getZ());
+        if(registered != null)
+        {
+            // The chunk got metadata off the main thread before its turn came, which keeps its own storage
+            // Only what it doesn't have yet is taken from the queued storage
+            stored.forEach((key, container) ->
+            {
+                if(registered.get(key) == null)
+                {
+                    registered.load(key, container);
+                }
+            });
+            loadPacked(registered, stored.getPacked());
+            stored.unload();
+            chunkIndex.update(registered.getWorld(), registered.getX(), registered.getZ(), registered.trackedSize());
+            return true;
+        }
+        
+        // Decode every block's container once so lookups don't go through storage
+        stored.forEach(chunkData::load);
+        loadPacked(chunkData, stored.getPacked());
+        if(!repair(chunkData))
+        {
+            return false;
+        }
+        loadedChunks.put(chunkData);
+        chunkIndex.update(chunkData.getWorld(), chunkData.getX(), chunkData.getZ(), chunkData.trackedSize());
+        changes.recordChunk(chunkData, MetadataChangeType.CHUNK_LOAD);
+        
+        if(loadUnloadTypeChecker != null)
+        {
+            chunkData.setTypeCheckPending(true);
+            typeChecks.add(chunkData);
+        }
+        if(snapshotTypeChecker != null)
+        {
+            checkTypesAsync(chunkData);
+        }
+        return true;
+    }
+    
+    /**
+     * Fixes stored metadata that doesn't match what was decoded from it, e.g. after a crash or a failed write
+     * Storage without any metadata left is deleted and a drifted count is saved again
+     * @param chunkData the decoded chunk
+     * @return false if the chunk had no metadata and its storage was deleted
+     */
+    private boolean repair(ChunkData chunkData)
+    {
+        StoredChunk stored = chunkData.getStored();
+        if(chunkData.isEmpty())
+        {
+            stored.delete();
+            chunkIndex.update(chunkData.getWorld(), chunkData.getX(), chunkData.getZ(), 0);
+            repairs.increment();
+            return false;
+        }
+        int count = stored.getCount();
+        if(count != -1 && count != chunkData.size())
+        {
+            stored.save(chunkData.size());
+            repairs.increment();
+        }
+        return true;
+    }
+    
+    private void checkTypes(ChunkData chunkData)
+    {
+        // Cleared first so removals made by the check don't start it again
+        chunkData.setTypeCheckPending(false);
+        if(loadUnloadTypeChecker == null)
+        {
+            return;
+        }
+        World world = chunkData.getWorld();
+        for(int key : chunkData.getEntries().keys())
+        {
+            Block block = world.getBlockAt((chunkData.getX() << 4) | BlockKey.x(key), BlockKey.y(key),
+                    (chunkData.getZ() << 4) | BlockKey.z(key));
+            if(loadUnloadTypeChecker.shouldRemove(block, chunkData.get(key)))
+            {
+                remove(block);
+            }
+        }
+    }
+    
+    /**
+     * Copies a container through a scratch container
+     * Storing a container copies its tags into a new compound and reading it back wraps them in a new container
+     * @param scratch the container to store the copy in
+     * @param container the container to copy
+     * @return the copy
+     */
+    private PersistentDataContainer copy(PersistentDataContainer scratch, PersistentDataContainer container)
+    {
+        scratch.set(copyKey, PersistentDataType.TAG_CONTAINER, container);
+        return scratch.get(copyKey, PersistentDataType.TAG_CONTAINER);
+    }
+    
+    /**
+     * Runs the SnapshotTypeChecker on copies of a chunk's blocks and metadata off the main thread
+     * @param chunkData the chunk to check
+     */
+    private void checkTypesAsync(ChunkData chunkData)
+    {
+        SnapshotTypeChecker checker = snapshotTypeChecker;
+        ChunkSnapshot snapshot = chunkData.getWorld().getChunkAt(chunkData.getX(), chunkData.getZ())
+                .getChunkSnapshot(false, false, false);
+        int[] keys = chunkData.getEntries().keys();
+        PersistentDataContainer[] originals = new PersistentDataContainer[keys.length];
+        PersistentDataContainer[] copies = new PersistentDataContainer[keys.length];
+        PersistentDataContainer scratch = chunkData.getStored().newContainer();
+        for(int i = 0; i < keys.length; i++)
+        {
+            originals[i] = chunkData.get(keys[i]);
+            copies[i] = copy(scratch, originals[i]);
+        }
+        
+        BukkitScheduler scheduler = plugin.getServer().getScheduler();
+        scheduler.runTaskAsynchronously(plugin, () ->
+        {
+            int[] removals = new int[keys.length];
+            int count = 0;
+            for(int i = 0; i < keys.length; i++)
+            {
+                if(checker.shouldRemove(snapshot, BlockKey.x(keys[i]), BlockKey.y(keys[i]), BlockKey.z(keys[i]), copies[i]))
+                {
+                    removals[count++] = i;
+                }
+            }
+            
+            int removed = count;
+            if(removed > 0 && plugin.isEnabled())
+            {
+                scheduler.runTask(plugin, () -> applyRemovals(chunkData, keys, originals, removals, removed));
+            }
+        });
+    }
+    
+    private void applyRemovals(ChunkData chunkData, int[] keys, PersistentDataContainer[] originals, int[] removals, int count)
+    {
+        // Results for chunks that unloaded since are dropped, and entries replaced since the snapshot are kept
+        if(loadedChunks.get(chunkData.getWorld(), chunkData.getX(), chunkData.getZ()) != chunkData)
+        {
+            return;
+        }
+        for(int i = 0; i < count; i++)
+        {
+            int index = removals[i];
+            if(chunkData.get(keys[index]) == originals[index])
+            {
+                // The block's packed values go with it, the same as removing it through the API
+                removeBlock(chunkData, keys[index]);
+                changes.recordBlock(chunkData, keys[index], MetadataChangeType.REMOVE);
+            }
+        }
+        if(chunkData.isEmpty())
+        {
+            removeChunkData(chunkData);
+        }
+    }
+    
+    // Priority low so regular listeners can query metadata at normal priority
+    // and LOWEST listeners can still cancel the event
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.LOW)
+    private void onChunkLoad(ChunkLoadEvent event)
+    {
+        queueChunk(event.getChunk());
+    }
+    
+    // Priority monitor so regular listeners can query metadata at normal priority
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    private void onChunkUnload(ChunkUnloadEvent event)
+    {
+        Chunk chunk = event.getChunk();
+        
+        // Chunks that unload before they are decoded leave their storage untouched
+        ChunkData queued = ingestQueue.take(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        if(queued != null)
+        {
+            queued.getStored().unload();
+            return;
+        }
+        
+        ChunkData chunkData = loadedChunks.get(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        if(chunkData != null)
         {
-            CloudSendPrevention.onReady(plugin, this);
-            sendPreventionReady = true;
+            long start = System.nanoTime();
+            checkTypes(chunkData);
+            
+            // Check if *all* data was removed
+            if(loadedChunks.get(chunk.getWorld(), chunk.getX(), chunk.getZ()) == chunkData)
+            {
+                // Write back any changes so they are saved with the chunk
+                flush(chunkData);
+                chunkData.getStored().unload();
+                loadedChunks.remove(chunkData);
+                changes.recordChunk(chunkData, MetadataChangeType.CHUNK_UNLOAD);
+            }
+            chunkUnloadNanos.add(System.nanoTime() - start);
+            chunkUnloads.increment();
         }
     }
     
-    private static Class<?> getCraftBukkitClass(String name) throws ClassNotFoundException
+    // Priority monitor so changes made by regular listeners are included
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onWorldSave(WorldSaveEvent event)
+    {
+        loadedChunks.forEach(event.getWorld().getUID(), this::flush);
+        store.save(event.getWorld());
+        chunkIndex.save(event.getWorld());
+    }
+    
+    @EventHandler
+    private void onPluginDisable(PluginDisableEvent event)
     {
-        return Class.forName("org.bukkit.craftbukkit." + Bukkit.getServer().getClass().getPackage().getName().split("\\.")[3] + "." + name);
+        // Chunks are saved after plugins are disabled so pending changes have to reach the clouds now
+        if(event.getPlugin() == plugin)
+        {
+            flush();
+            store.close();
+            chunkIndex.close();
+            setJmxEnabled(false);
+        }
     }
 }
@@ -0,0 +1,63 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+/**
+ * The hashing, load limit and removal rule of the open-addressing tables keyed by primitives
+ * Keys are probed linearly from their home slot, and removals shift later entries back instead of leaving tombstones.
+ * The tables keep their own probe loops since they differ in key type and in how a free slot is marked
+ */
+final class Probing
+{
+    private Probing()
+    {
+    }
+    
+    /**
+     * Gets the slot a key's probe starts at
+     * @param key the key
+     * @param mask the table's capacity minus one
+     * @return the home slot
+     */
+    static int home(int key, int mask)
+    {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+    
+    /**
+     * Gets the slot a key's probe starts at
+     * @param key the key
+     * @param mask the table's capacity minus one
+     * @return the home slot
+     */
+    static int home(long key, int mask)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+    
+    /**
+     * Checks if a table has to grow, which keeps it at most half full so probes stay short
+     * @param size the amount of entries after an insert
+     * @param capacity the table's capacity
+     * @return true if the table should double
+     */
+    static boolean isFull(int size, int capacity)
+    {
+        return size > (capacity >> 1);
+    }
+    
+    /**
+     * Checks if the entry in a slot may move back into the gap left by a removal
+     * It may if its probe passes the gap, i.e. the gap is no further from the slot than the entry's home is,
+     * counting around the end of the table
+     * @param gap the free slot
+     * @param slot the slot of the entry after the gap
+     * @param home the home slot of the entry
+     * @param mask the table's capacity minus one
+     * @return true if moving the entry into the gap keeps it reachable
+     */
+    static boolean canFill(int gap, int slot, int home, int mask)
+    {
+        return ((slot - home) & mask) >= ((slot - gap) & mask);
+    }
+}
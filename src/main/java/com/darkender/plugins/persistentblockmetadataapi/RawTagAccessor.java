@@ -0,0 +1,112 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Bukkit;
+import org.bukkit.persistence.PersistentDataContainer;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Reads the raw tag map behind a CraftBukkit PersistentDataContainer
+ * The accessor is resolved once; a generated lambda is used where possible and an exact method handle otherwise
+ */
+final class RawTagAccessor
+{
+    private static final String CONTAINER_CLASS = "persistence.CraftPersistentDataContainer";
+    
+    private static final Class<?> containerClass;
+    private static final Function<Object, Map<String, Object>> accessor;
+    
+    static
+    {
+        Class<?> foundClass = null;
+        Function<Object, Map<String, Object>> foundAccessor = null;
+        try
+        {
+            foundClass = findContainerClass();
+            foundAccessor = createAccessor(foundClass);
+        }
+        catch(Throwable e)
+        {
+            e.printStackTrace();
+        }
+        containerClass = foundClass;
+        accessor = foundAccessor;
+    }
+    
+    private RawTagAccessor()
+    {
+    }
+    
+    /**
+     * Checks if the raw tags can be read on this server
+     * @return true if the accessor was resolved
+     */
+    static boolean isAvailable()
+    {
+        return accessor != null;
+    }
+    
+    /**
+     * Gets the raw tag map of a container
+     * @param container the container to read
+     * @return the live tag map or {@code null} if the container's tags can't be read
+     */
+    static Map<String, Object> get(PersistentDataContainer container)
+    {
+        if(accessor == null || !containerClass.isInstance(container))
+        {
+            return null;
+        }
+        return accessor.apply(container);
+    }
+    
+    private static Class<?> findContainerClass() throws ClassNotFoundException
+    {
+        // Relocated CraftBukkit lives in a versioned package next to the server class, so that package is tried first
+        // instead of parsing a version out of its name; unrelocated builds have no version at all
+        Class<?> server = Bukkit.getServer().getClass();
+        try
+        {
+            return Class.forName(server.getPackage().getName() + "." + CONTAINER_CLASS, true, server.getClassLoader());
+        }
+        catch(ClassNotFoundException e)
+        {
+            return Class.forName("org.bukkit.craftbukkit." + CONTAINER_CLASS, true, server.getClassLoader());
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Map<String, Object>> createAccessor(Class<?> type) throws ReflectiveOperationException
+    {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle getRaw = lookup.findVirtual(type, "getRaw", MethodType.methodType(Map.class));
+        try
+        {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class), getRaw, MethodType.methodType(Map.class, type));
+            return (Function<Object, Map<String, Object>>) site.getTarget().invokeExact();
+        }
+        catch(Throwable e)
+        {
+            // The server class may not be visible to generated classes; an exact handle is nearly as fast
+            MethodHandle exact = getRaw.asType(MethodType.methodType(Map.class, Object.class));
+            return container ->
+            {
+                try
+                {
+                    return (Map<String, Object>) exact.invokeExact(container);
+                }
+                catch(Throwable throwable)
+                {
+                    throw new IllegalStateException(throwable);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * A file holding the metadata of the 32x32 chunks of a region in 4KiB sectors, laid out like Minecraft's region files
+ * The first sector is a memory-mapped table of where each chunk's data is. New data is always written to free sectors
+ * and synced before the table points to it, so a crash leaves every chunk with either its old or its new data.
+ * Chunks too large for the table's sector count are stored in a file of their own next to the region, like Anvil's .mcc files.
+ * Each such file is named after the sector that marks it, so a new version never replaces the one the table points to
+ */
+final class RegionFile implements Closeable
+{
+    private static final int SECTOR_SIZE = 4096;
+    private static final int CHUNKS = 32 * 32;
+    private static final int MAX_SECTORS = 255;
+    // Written as the length of a chunk whose data is in its own file
+    private static final int EXTERNAL = -1;
+    private static final byte[] DELETED = new byte[0];
+    
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer table;
+    private final BitSet usedSectors = new BitSet();
+    private final IntObjectMap<byte[]> staged = new IntObjectMap<>();
+    
+    RegionFile(Path path) throws IOException
+    {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        table = channel.map(FileChannel.MapMode.READ_WRITE, 0, SECTOR_SIZE);
+        usedSectors.set(0);
+        for(int i = 0; i < CHUNKS; i++)
+        {
+            int location = table.getInt(i * 4);
+            if(location != 0)
+            {
+                usedSectors.set(location >>> 8, (location >>> 8) + (location & 0xFF));
+            }
+        }
+    }
+    
+    /**
+     * Gets the index of a chunk in its region
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return the index of the chunk
+     */
+    static int index(int chunkX, int chunkZ)
+    {
+        return (chunkX & 31) | ((chunkZ & 31) << 5);
+    }
+    
+    /**
+     * Checks if a chunk has data, including changes that are staged but not committed
+     * @param index the index of the chunk
+     * @return true if the chunk has data
+     */
+    boolean has(int index)
+    {
+        byte[] data = staged.get(index);
+        return data != null ? data != DELETED : table.getInt(index * 4) != 0;
+    }
+    
+    /**
+     * Reads the data of a chunk, including changes that are staged but not committed
+     * @param index the index of the chunk
+     * @return the data or {@code null} if the chunk has none
+     * @throws IOException if the file can't be read or is corrupt
+     */
+    byte[] read(int index) throws IOException
+    {
+        byte[] data = staged.get(index);
+        if(data != null)
+        {
+            return data == DELETED ? null : data;
+        }
+        
+        int location = table.getInt(index * 4);
+        if(location == 0)
+        {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((location & 0xFF) * SECTOR_SIZE);
+        long position = (long) (location >>> 8) * SECTOR_SIZE;
+        while(buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position + buffer.position());
+            if(read == -1)
+            {
+                throw new IOException("Chunk " + index + " of " + path + " is truncated");
+            }
+        }
+        buffer.flip();
+        int length = buffer.getInt();
+        if(length == EXTERNAL)
+        {
+            return Files.readAllBytes(externalPath(index, location >>> 8));
+        }
+        if(length < 0 || length > buffer.remaining())
+        {
+            throw new IOException("Chunk " + index + " of " + path + " has an invalid length");
+        }
+        data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+    
+    /**
+     * Stages new data for a chunk to be written by the next commit
+     * @param index the index of the chunk
+     * @param data the new data or {@code null} to delete the chunk's data
+     */
+    void stage(int index, byte[] data)
+    {
+        staged.put(index, data == null ? DELETED : data);
+    }
+    
+    /**
+     * Writes all staged changes to the file
+     * @throws IOException if writing fails; chunks keep their previous data in that case
+     */
+    void commit() throws IOException
+    {
+        if(staged.isEmpty())
+        {
+            return;
+        }
+        
+        // Write every chunk to sectors no committed chunk uses and make sure it's on disk before the table changes
+        int[] indexes = staged.keys();
+        int[] locations = new int[indexes.length];
+        try
+        {
+            for(int i = 0; i < indexes.length; i++)
+            {
+                byte[] data = staged.get(indexes[i]);
+                if(data == DELETED)
+                {
+                    continue;
+                }
+                int sectors = sectorsFor(data);
+                ByteBuffer buffer;
+                int start;
+                if(sectors > MAX_SECTORS)
+                {
+                    // The chunk's own sector only marks that its data is in the external file named after that sector
+                    sectors = 1;
+                    start = allocate(sectors);
+                    locations[i] = (start << 8) | sectors;
+                    writeExternal(externalPath(indexes[i], start), data);
+                    buffer = ByteBuffer.allocate(SECTOR_SIZE);
+                    buffer.putInt(EXTERNAL);
+                }
+                else
+                {
+                    start = allocate(sectors);
+                    locations[i] = (start << 8) | sectors;
+                    buffer = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+                    buffer.putInt(data.length);
+                    buffer.put(data);
+                }
+                buffer.clear();
+                long position = (long) start * SECTOR_SIZE;
+                while(buffer.hasRemaining())
+                {
+                    channel.write(buffer, position + buffer.position());
+                }
+            }
+            channel.force(false);
+        }
+        catch(IOException e)
+        {
+            // Nothing points to the new data yet, so it is dropped and every chunk keeps its previous data
+            for(int i = 0; i < indexes.length; i++)
+            {
+                if(locations[i] != 0)
+                {
+                    usedSectors.clear(locations[i] >>> 8, (locations[i] >>> 8) + (locations[i] & 0xFF));
+                    deleteExternal(indexes[i], locations[i]);
+                }
+            }
+            throw e;
+        }
+        
+        int[] previous = new int[indexes.length];
+        BitSet freed = new BitSet();
+        for(int i = 0; i < indexes.length; i++)
+        {
+            previous[i] = table.getInt(indexes[i] * 4);
+            if(previous[i] != 0)
+            {
+                freed.set(previous[i] >>> 8, (previous[i] >>> 8) + (previous[i] & 0xFF));
+            }
+            table.putInt(indexes[i] * 4, locations[i]);
+        }
+        table.force();
+        
+        // The old sectors and external files are only reused or deleted once nothing points to them anymore
+        usedSectors.andNot(freed);
+        staged.clear();
+        for(int i = 0; i < indexes.length; i++)
+        {
+            if(previous[i] != 0)
+            {
+                deleteExternal(indexes[i], previous[i]);
+            }
+        }
+    }
+    
+    private Path externalPath(int index, int sector)
+    {
+        return path.resolveSibling(path.getFileName() + "." + index + "." + sector);
+    }
+    
+    // Every location may have had an external file, so the file is deleted if it exists
+    private void deleteExternal(int index, int location)
+    {
+        try
+        {
+            Files.deleteIfExists(externalPath(index, location >>> 8));
+        }
+        catch(IOException e)
+        {
+            // A leftover file is never read since no table entry points to it
+        }
+    }
+    
+    /**
+     * Writes the data of a chunk to a new file of its own
+     * @param external the file to write
+     * @param data the data
+     * @throws IOException if writing fails
+     */
+    private static void writeExternal(Path external, byte[] data) throws IOException
+    {
+        try(FileChannel out = FileChannel.open(external, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while(buffer.hasRemaining())
+            {
+                out.write(buffer);
+            }
+            out.force(false);
+        }
+    }
+    
+    private static int sectorsFor(byte[] data)
+    {
+        return (data.length + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+    }
+    
+    private int allocate(int sectors)
+    {
+        int start = usedSectors.nextClearBit(1);
+        while(true)
+        {
+            int end = usedSectors.nextSetBit(start);
+            if(end == -1 || end - start >= sectors)
+            {
+                break;
+            }
+            start = usedSectors.nextClearBit(end);
+        }
+        usedSectors.set(start, start + sectors);
+        return start;
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
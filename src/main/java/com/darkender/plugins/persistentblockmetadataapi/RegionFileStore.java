@@ -0,0 +1,355 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Stores block metadata in compact binary region files inside the world folder instead of on entities
+ * Changes are written to disk when the world saves so the saved metadata keeps matching the saved chunks
+ */
+public class RegionFileStore implements MetadataStore
+{
+    private final String folderName;
+    private final Map<UUID, Map<Long, RegionFile>> regions = new HashMap<>();
+    // Chunks whose changes failed to stage are tried again before every commit, even after they unload
+    private final Set<RegionChunk> unstaged = new HashSet<>();
+    
+    /**
+     * Construct the RegionFileStore
+     * @param plugin the plugin using this store. Its files are kept in a folder named after it in each world folder
+     */
+    public RegionFileStore(@NotNull Plugin plugin)
+    {
+        this.folderName = plugin.getName().toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * Gets the open region file containing a chunk
+     * @param world the world the chunk is in
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @param create if the file should be created when it doesn't exist
+     * @return the region file or {@code null} if it doesn't exist and wasn't created
+     * @throws IOException if the file can't be opened
+     */
+    private RegionFile regionFor(World world, int chunkX, int chunkZ, boolean create) throws IOException
+    {
+        Map<Long, RegionFile> worldRegions = regions.computeIfAbsent(world.getUID(), id -> new HashMap<>());
+        long key = ChunkRegistry.chunkKey(chunkX >> 5, chunkZ >> 5);
+        RegionFile region = worldRegions.get(key);
+        if(region == null && (create || !worldRegions.containsKey(key)))
+        {
+            // Missing files are remembered as null so chunk loads in empty regions don't touch the disk
+            Path path = world.getWorldFolder().toPath().resolve("blockmetadata").resolve(folderName)
+                    .resolve("r." + (chunkX >> 5) + "." + (chunkZ >> 5) + ".pbm");
+            if(create)
+            {
+                Files.createDirectories(path.getParent());
+            }
+            region = create || Files.exists(path) ? new RegionFile(path) : null;
+            worldRegions.put(key, region);
+        }
+        return region;
+    }
+    
+    @Override
+    public StoredChunk load(@NotNull Chunk chunk)
+    {
+        try
+        {
+            RegionFile region = regionFor(chunk.getWorld(), chunk.getX(), chunk.getZ(), false);
+            if(region != null && region.has(RegionFile.index(chunk.getX(), chunk.getZ())))
+            {
+                return new RegionChunk(chunk.getWorld(), chunk.getX(), chunk.getZ(), true);
+            }
+        }
+        catch(IOException e)
+        {
+            Bukkit.getLogger().warning("Failed to open block metadata of chunk " + chunk.getX() + " " + chunk.getZ());
+            e.printStackTrace();
+        }
+        return null;
+    }
+    
+    @Override
+    public @NotNull StoredChunk create(@NotNull World world, int chunkX, int chunkZ)
+    {
+        // Chunks that aren't loaded may have saved metadata, which has to be read before the chunk is staged again
+        boolean stored;
+        try
+        {
+            RegionFile region = regionFor(world, chunkX, chunkZ, false);
+            stored = region != null && region.has(RegionFile.index(chunkX, chunkZ));
+        }
+        catch(IOException e)
+        {
+            // Reading is tried again when the chunk is first used
+            Bukkit.getLogger().warning("Failed to open block metadata of chunk " + chunkX + " " + chunkZ);
+            e.printStackTrace();
+            stored = true;
+        }
+        return new RegionChunk(world, chunkX, chunkZ, stored);
+    }
+    
+    @Override
+    public void save(@NotNull World world)
+    {
+        retryStaging(world);
+        Map<Long, RegionFile> worldRegions = regions.get(world.getUID());
+        if(worldRegions != null)
+        {
+            commit(worldRegions);
+        }
+    }
+    
+    @Override
+    public void close()
+    {
+        retryStaging(null);
+        for(Map<Long, RegionFile> worldRegions : regions.values())
+        {
+            commit(worldRegions);
+        }
+    }
+    
+    /**
+     * Stages the changes of chunks that failed to stage before
+     * @param world the world to retry the chunks of or {@code null} for every world
+     */
+    private void retryStaging(World world)
+    {
+        for(RegionChunk chunk : unstaged.toArray(new RegionChunk[0]))
+        {
+            if(world == null || chunk.world == world)
+            {
+                chunk.stage();
+            }
+        }
+    }
+    
+    // Files are closed after every save and opened again when needed so only recently used regions stay open
+    // Files that fail to save stay open with their changes staged so the next save tries again
+    private void commit(Map<Long, RegionFile> worldRegions)
+    {
+        Iterator<RegionFile> iterator = worldRegions.values().iterator();
+        while(iterator.hasNext())
+        {
+            RegionFile region = iterator.next();
+            try
+            {
+                if(region != null)
+                {
+                    region.commit();
+                    region.close();
+                }
+                iterator.remove();
+            }
+            catch(IOException e)
+            {
+                Bukkit.getLogger().warning("Failed to save block metadata");
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    private final class RegionChunk implements StoredChunk
+    {
+        private final World world;
+        private final int x;
+        private final int z;
+        private final IntObjectMap<PersistentDataContainer> entries = new IntObjectMap<>();
+        private PersistentDataContainer packed = null;
+        private boolean read;
+        private boolean dirty = false;
+        
+        private RegionChunk(World world, int x, int z, boolean stored)
+        {
+            this.world = world;
+            this.x = x;
+            this.z = z;
+            this.read = !stored;
+        }
+        
+        private PersistentDataAdapterContext context()
+        {
+            return world.getPersistentDataContainer().getAdapterContext();
+        }
+        
+        // Entries are read when they are first needed instead of while the chunk loads
+        private void read()
+        {
+            if(read)
+            {
+                return;
+            }
+            read = true;
+            try
+            {
+                RegionFile region = regionFor(world, x, z, false);
+                byte[] data = region == null ? null : region.read(RegionFile.index(x, z));
+                if(data == null)
+                {
+                    return;
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+                PersistentDataAdapterContext context = context();
+                int size = ContainerCodec.readVarInt(in);
+                for(int i = 0; i < size; i++)
+                {
+                    int key = ContainerCodec.readVarInt(in);
+                    entries.put(key, ContainerCodec.read(in, context));
+                }
+                // Chunks saved before packed columns existed end after their entries
+                if(in.available() > 0 && in.readBoolean())
+                {
+                    packed = ContainerCodec.read(in, context);
+                }
+            }
+            catch(IOException e)
+            {
+                Bukkit.getLogger().warning("Failed to read block metadata of chunk " + x + " " + z);
+                e.printStackTrace();
+            }
+        }
+        
+        @Override
+        public @NotNull PersistentDataContainer newContainer()
+        {
+            return context().newPersistentDataContainer();
+        }
+        
+        @Override
+        public PersistentDataContainer get(int key)
+        {
+            read();
+            return entries.get(key);
+        }
+        
+        @Override
+        public void set(int key, @NotNull PersistentDataContainer value)
+        {
+            read();
+            entries.put(key, value);
+            dirty = true;
+        }
+        
+        @Override
+        public void remove(int key)
+        {
+            read();
+            if(entries.remove(key) != null)
+            {
+                dirty = true;
+            }
+        }
+        
+        @Override
+        public void forEach(@NotNull EntryVisitor visitor)
+        {
+            read();
+            entries.forEach(visitor::visit);
+        }
+        
+        @Override
+        public PersistentDataContainer getPacked()
+        {
+            read();
+            return packed;
+        }
+        
+        @Override
+        public void setPacked(PersistentDataContainer packed)
+        {
+            read();
+            this.packed = packed;
+            dirty = true;
+        }
+        
+        @Override
+        public void save(int count)
+        {
+            if(dirty)
+            {
+                stage();
+            }
+        }
+        
+        /**
+         * Encodes the chunk and stages it in its region file
+         * The chunk stays dirty and is retried before the next commit if that fails
+         */
+        private void stage()
+        {
+            try
+            {
+                // Containers may still be changed after this, so they are encoded now and staged until the world saves
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                ContainerCodec.writeVarInt(out, entries.size());
+                for(int key : entries.keys())
+                {
+                    ContainerCodec.writeVarInt(out, key);
+                    ContainerCodec.write(out, entries.get(key));
+                }
+                out.writeBoolean(packed != null);
+                if(packed != null)
+                {
+                    ContainerCodec.write(out, packed);
+                }
+                regionFor(world, x, z, true).stage(RegionFile.index(x, z), bytes.toByteArray());
+                dirty = false;
+                unstaged.remove(this);
+            }
+            catch(IOException e)
+            {
+                unstaged.add(this);
+                Bukkit.getLogger().warning("Failed to save block metadata of chunk " + x + " " + z + ", retrying when the world saves");
+                e.printStackTrace();
+            }
+        }
+        
+        @Override
+        public void unload()
+        {
+            // Saved changes stay staged in the region file until the world saves
+        }
+        
+        @Override
+        public void delete()
+        {
+            entries.clear();
+            packed = null;
+            dirty = false;
+            unstaged.remove(this);
+            try
+            {
+                RegionFile region = regionFor(world, x, z, false);
+                if(region != null)
+                {
+                    region.stage(RegionFile.index(x, z), null);
+                }
+            }
+            catch(IOException e)
+            {
+                Bukkit.getLogger().warning("Failed to delete block metadata of chunk " + x + " " + z);
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.persistence.PersistentDataContainer;
+
+public interface SnapshotTypeChecker
+{
+    /**
+     * Called off the main thread after a chunk is loaded to ensure saved data is as it should be
+     * Only the snapshot and the data may be used; the world must not be accessed from this thread
+     * @param snapshot a snapshot of the chunk taken after it loaded
+     * @param x the x coordinate of the block within the chunk
+     * @param y the y coordinate of the block
+     * @param z the z coordinate of the block within the chunk
+     * @param data a copy of the data container attached to the block
+     * @return true if the data should be removed, false otherwise
+     */
+    boolean shouldRemove(ChunkSnapshot snapshot, int x, int y, int z, PersistentDataContainer data);
+}
@@ -0,0 +1,89 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.persistence.PersistentDataContainer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The stored metadata of one chunk in a {@link MetadataStore}
+ * Blocks are identified by their key from {@link BlockKey#pack(int, int, int)}
+ */
+public interface StoredChunk
+{
+    /**
+     * Visits a stored entry
+     */
+    interface EntryVisitor
+    {
+        void visit(int key, @NotNull PersistentDataContainer value);
+    }
+    
+    /**
+     * Creates an empty container that can be stored in this chunk
+     * @return a new container
+     */
+    @NotNull PersistentDataContainer newContainer();
+    
+    /**
+     * Gets the stored metadata of a block
+     * @param key the packed block key
+     * @return the stored container or {@code null} if the block has none
+     */
+    @Nullable PersistentDataContainer get(int key);
+    
+    /**
+     * Stores the metadata of a block
+     * @param key the packed block key
+     * @param value the container to store
+     */
+    void set(int key, @NotNull PersistentDataContainer value);
+    
+    /**
+     * Removes the stored metadata of a block
+     * @param key the packed block key
+     */
+    void remove(int key);
+    
+    /**
+     * Visits every stored entry
+     * @param visitor called with each block key and its container
+     */
+    void forEach(@NotNull EntryVisitor visitor);
+    
+    /**
+     * Gets the packed columns of the chunk, written by {@link #setPacked(PersistentDataContainer)}
+     * @return the stored columns or {@code null} if there are none
+     */
+    @Nullable PersistentDataContainer getPacked();
+    
+    /**
+     * Stores the packed columns of the chunk, which hold the values of every {@link PackedCodec} used in it
+     * @param packed the columns to store or {@code null} to remove them
+     */
+    void setPacked(@Nullable PersistentDataContainer packed);
+    
+    /**
+     * Gets the block count written by the last {@link #save(int)}, which is checked against the stored entries when the chunk loads
+     * @return the count or -1 if the store doesn't keep one
+     */
+    default int getCount()
+    {
+        return -1;
+    }
+    
+    /**
+     * Called after a batch of changes has been written to this chunk
+     * @param count how many blocks in the chunk have metadata
+     */
+    void save(int count);
+    
+    /**
+     * Called when the chunk unloads, after its last changes have been saved
+     */
+    void unload();
+    
+    /**
+     * Called when no block in the chunk has metadata anymore
+     */
+    void delete();
+}
@@ -0,0 +1,9 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+/**
+ * Visits a chunk listed in the index of chunks with metadata
+ */
+public interface TaggedChunkVisitor
+{
+    void visit(int chunkX, int chunkZ, int count);
+}
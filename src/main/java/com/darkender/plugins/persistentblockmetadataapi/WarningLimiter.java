@@ -0,0 +1,38 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Bukkit;
+
+/**
+ * Logs a kind of warning at most once per interval and counts the ones left out in between
+ * Used for warnings that can come up for every cloud so a damaged world doesn't flood the log
+ */
+final class WarningLimiter
+{
+    private final long intervalNanos;
+    private long lastWarning = 0;
+    private boolean warned = false;
+    private int suppressed = 0;
+    
+    /**
+     * Constructs the WarningLimiter
+     * @param intervalNanos the minimum time between two warnings in nanoseconds
+     */
+    WarningLimiter(long intervalNanos)
+    {
+        this.intervalNanos = intervalNanos;
+    }
+    
+    void warn(String message)
+    {
+        long now = System.nanoTime();
+        if(warned && now - lastWarning < intervalNanos)
+        {
+            suppressed++;
+            return;
+        }
+        Bukkit.getLogger().warning(suppressed == 0 ? message : message + " (" + suppressed + " similar warnings suppressed)");
+        lastWarning = now;
+        warned = true;
+        suppressed = 0;
+    }
+}
@@ -2,12 +2,15 @@ package com.darkender.plugins.persistentblockmetadataapi;
 
 import org.bukkit.Bukkit;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.event.*;
 import org.bukkit.event.block.*;
 import org.bukkit.event.entity.EntityChangeBlockEvent;
 import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.plugin.Plugin;
 
+import java.util.List;
+
 public class WorldTrackingModule implements Listener
 {
     private final PersistentBlockMetadataAPI persistentBlockMetadataAPI;
@@ -38,18 +41,41 @@ public class WorldTrackingModule implements Listener
         }
     }
     
-    private void onMove(Block from, Block to, Event event)
+    private void onExplode(List<Block> blocks, Event event)
     {
+        List<Block> tracked = persistentBlockMetadataAPI.getTracked(blocks);
+        if(tracked.isEmpty())
+        {
+            return;
+        }
+        
         if(metadataWorldTrackObserver != null)
         {
-            metadataWorldTrackObserver.onMove(from, to, event);
+            metadataWorldTrackObserver.onExplode(tracked, event);
+        }
+        
+        // Remove the blocks if the event hasn't been cancelled
+        if(!((event instanceof Cancellable) && ((Cancellable) event).isCancelled()))
+        {
+            persistentBlockMetadataAPI.removeAll(tracked);
         }
+    }
     
-        // Move the block if the event hasn't been cancelled
+    private void onMove(List<Block> blocks, BlockFace direction, Event event)
+    {
+        // moveAll skips blocks without metadata itself, so they only have to be found first for the observer
+        if(metadataWorldTrackObserver != null)
+        {
+            for(Block block : persistentBlockMetadataAPI.getTracked(blocks))
+            {
+                metadataWorldTrackObserver.onMove(block, block.getRelative(direction), event);
+            }
+        }
+        
+        // Move the blocks if the event hasn't been cancelled
         if(!((event instanceof Cancellable) && ((Cancellable) event).isCancelled()))
         {
-            persistentBlockMetadataAPI.set(to, persistentBlockMetadataAPI.get(from));
-            persistentBlockMetadataAPI.remove(from);
+            persistentBlockMetadataAPI.moveAll(blocks, direction);
         }
     }
     
@@ -83,13 +109,7 @@ public class WorldTrackingModule implements Listener
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     private void onBlockExplode(BlockExplodeEvent event)
     {
-        for(Block check : event.blockList())
-        {
-            if(persistentBlockMetadataAPI.has(check))
-            {
-                onBreak(event.getBlock(), event);
-            }
-        }
+        onExplode(event.blockList(), event);
     }
     
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
@@ -113,25 +133,13 @@ public class WorldTrackingModule implements Listener
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     private void onBlockPistonExtendEvent(BlockPistonExtendEvent event)
     {
-        for(Block check : event.getBlocks())
-        {
-            if(persistentBlockMetadataAPI.has(check))
-            {
-                onMove(check, check.getRelative(event.getDirection()), event);
-            }
-        }
+        onMove(event.getBlocks(), event.getDirection(), event);
     }
     
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     private void onBlockPistonRetractEvent(BlockPistonRetractEvent event)
     {
-        for(Block check : event.getBlocks())
-        {
-            if(persistentBlockMetadataAPI.has(check))
-            {
-                onMove(check, check.getRelative(event.getDirection()), event);
-            }
-        }
+        onMove(event.getBlocks(), event.getDirection(), event);
     }
     
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
@@ -146,12 +154,6 @@ public class WorldTrackingModule implements Listener
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     private void onEntityExplode(EntityExplodeEvent event)
     {
-        for(Block check : event.blockList())
-        {
-            if(persistentBlockMetadataAPI.has(check))
-            {
-                onBreak(check, event);
-            }
-        }
+        onExplode(event.blockList(), event);
     }
 }
@@ -0,0 +1,35 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CloudStoreConformanceTest extends MetadataStoreConformanceTest
+{
+    private CloudStore cloudStore;
+    
+    @Override
+    protected MetadataStore open()
+    {
+        // Clouds stay in the fake world, so a new store finds the clouds of the previous one
+        cloudStore = CloudStore.standalone(plugin, false, false);
+        return cloudStore.view(plugin, new BlockKeyCache(plugin));
+    }
+    
+    @Test
+    public void closingReleasesOpenClouds()
+    {
+        StoredChunk stored = store.create(world, 0, 0);
+        stored.set(BlockKey.pack(1, 2, 3), value(stored, 1));
+        stored.save(1);
+        store.create(world, 1, 0).save(0);
+        assertEquals(2, cloudStore.getLoadedClouds());
+        
+        store.close();
+        assertEquals(0, cloudStore.getLoadedClouds());
+        
+        // Unloading after the view closed doesn't release the cloud a second time
+        stored.unload();
+        assertEquals(0, cloudStore.getLoadedClouds());
+    }
+}
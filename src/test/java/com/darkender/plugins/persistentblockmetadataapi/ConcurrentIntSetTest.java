@@ -0,0 +1,138 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.darkender.plugins.persistentblockmetadataapi.TestThreads.join;
+import static com.darkender.plugins.persistentblockmetadataapi.TestThreads.thread;
+import static org.junit.Assert.*;
+
+public class ConcurrentIntSetTest
+{
+    private static final int THREADS = 8;
+    private static final int STABLE = 1000;
+    private static final int CHURN = 200_000;
+    
+    @Test
+    public void addRemoveContains()
+    {
+        ConcurrentIntSet set = new ConcurrentIntSet();
+        assertTrue(set.add(0));
+        assertTrue(set.add(42));
+        assertTrue(set.add(-7));
+        assertFalse(set.add(42));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(-7));
+        assertFalse(set.contains(43));
+        
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertTrue(set.remove(42));
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(42));
+        assertTrue(set.contains(-7));
+        assertEquals(1, set.size());
+    }
+    
+    @Test
+    public void removeKeepsCollidingValues()
+    {
+        // Enough values that many share probe sequences, removed in an order that leaves gaps in them
+        ConcurrentIntSet set = new ConcurrentIntSet();
+        for(int i = 1; i <= 10_000; i++)
+        {
+            set.add(i);
+        }
+        for(int i = 1; i <= 10_000; i += 3)
+        {
+            assertTrue(set.remove(i));
+        }
+        for(int i = 1; i <= 10_000; i++)
+        {
+            assertEquals((i - 1) % 3 != 0, set.contains(i));
+        }
+    }
+    
+    @Test
+    public void readsDuringWrites() throws Exception
+    {
+        ConcurrentIntSet set = new ConcurrentIntSet();
+        for(int i = 0; i < STABLE; i++)
+        {
+            set.add(stable(i));
+        }
+        
+        // Readers check values that are always present and values that never are while writers add and remove others,
+        // which rehashes the table many times
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for(int t = 0; t < THREADS / 2; t++)
+        {
+            int offset = t;
+            writers.add(thread(failure, start, () ->
+            {
+                for(int i = offset; i < CHURN; i += THREADS / 2)
+                {
+                    set.add(churn(i));
+                    if(i % 4 != 0)
+                    {
+                        set.remove(churn(i));
+                    }
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for(int t = 0; t < THREADS / 2; t++)
+        {
+            readers.add(thread(failure, start, () ->
+            {
+                int i = 0;
+                while(writers.stream().anyMatch(Thread::isAlive))
+                {
+                    assertTrue(set.contains(stable(i % STABLE)));
+                    assertFalse(set.contains(missing(i)));
+                    i++;
+                }
+            }));
+        }
+        start.countDown();
+        join(writers);
+        join(readers);
+        if(failure.get() != null)
+        {
+            throw new AssertionError("Concurrent access failed", failure.get());
+        }
+        
+        assertEquals(STABLE + CHURN / 4, set.size());
+        for(int i = 0; i < CHURN; i++)
+        {
+            assertEquals(i % 4 == 0, set.contains(churn(i)));
+        }
+        for(int i = 0; i < STABLE; i++)
+        {
+            assertTrue(set.contains(stable(i)));
+        }
+    }
+    
+    // Stable, churned and missing values never overlap
+    private static int stable(int i)
+    {
+        return i * 3 + 1;
+    }
+    
+    private static int churn(int i)
+    {
+        return i * 3 + 2;
+    }
+    
+    private static int missing(int i)
+    {
+        return i * 3 + 3;
+    }
+}
@@ -0,0 +1,144 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.darkender.plugins.persistentblockmetadataapi.TestThreads.join;
+import static com.darkender.plugins.persistentblockmetadataapi.TestThreads.thread;
+import static org.junit.Assert.*;
+
+public class ConcurrentLongObjectMapTest
+{
+    private static final int THREADS = 8;
+    private static final int STABLE = 1000;
+    private static final int CHURN = 200_000;
+    
+    @Test
+    public void putGetRemove()
+    {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>();
+        long key = ChunkRegistry.chunkKey(-3, 7);
+        assertNull(map.put(key, "a"));
+        assertEquals("a", map.put(key, "b"));
+        assertNull(map.put(0L, "zero"));
+        assertEquals("b", map.get(key));
+        assertEquals("zero", map.get(0L));
+        assertNull(map.get(ChunkRegistry.chunkKey(7, -3)));
+        assertEquals(2, map.size());
+        
+        assertFalse(map.remove(key, "a"));
+        assertTrue(map.remove(key, "b"));
+        assertNull(map.get(key));
+        assertEquals("zero", map.remove(0L));
+        assertNull(map.remove(0L));
+        assertEquals(0, map.size());
+        assertTrue(map.values().isEmpty());
+    }
+    
+    @Test
+    public void removeKeepsCollidingKeys()
+    {
+        ConcurrentLongObjectMap<Integer> map = new ConcurrentLongObjectMap<>();
+        for(int i = 0; i < 10_000; i++)
+        {
+            map.put(key(i), i);
+        }
+        for(int i = 0; i < 10_000; i += 3)
+        {
+            assertEquals(Integer.valueOf(i), map.remove(key(i)));
+        }
+        for(int i = 0; i < 10_000; i++)
+        {
+            assertEquals(i % 3 == 0 ? null : Integer.valueOf(i), map.get(key(i)));
+        }
+        assertEquals(10_000 - 3334, map.values().size());
+    }
+    
+    @Test
+    public void readsDuringWrites() throws Exception
+    {
+        ConcurrentLongObjectMap<Integer> map = new ConcurrentLongObjectMap<>();
+        for(int i = 0; i < STABLE; i++)
+        {
+            map.put(stable(i), i);
+        }
+        
+        // Readers look up keys that are always present and keys that never are while writers add and remove others,
+        // which rehashes the table many times
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for(int t = 0; t < THREADS / 2; t++)
+        {
+            int offset = t;
+            writers.add(thread(failure, start, () ->
+            {
+                for(int i = offset; i < CHURN; i += THREADS / 2)
+                {
+                    Integer value = i;
+                    map.put(churn(i), value);
+                    if(i % 4 != 0)
+                    {
+                        assertTrue(map.remove(churn(i), value));
+                    }
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for(int t = 0; t < THREADS / 2; t++)
+        {
+            readers.add(thread(failure, start, () ->
+            {
+                int i = 0;
+                while(writers.stream().anyMatch(Thread::isAlive))
+                {
+                    assertEquals(Integer.valueOf(i % STABLE), map.get(stable(i % STABLE)));
+                    assertNull(map.get(missing(i)));
+                    if(i % 1024 == 0)
+                    {
+                        assertTrue(map.values().size() >= STABLE);
+                    }
+                    i++;
+                }
+            }));
+        }
+        start.countDown();
+        join(writers);
+        join(readers);
+        if(failure.get() != null)
+        {
+            throw new AssertionError("Concurrent access failed", failure.get());
+        }
+        
+        assertEquals(STABLE + CHURN / 4, map.size());
+        for(int i = 0; i < CHURN; i++)
+        {
+            assertEquals(i % 4 == 0 ? Integer.valueOf(i) : null, map.get(churn(i)));
+        }
+    }
+    
+    // Keys spread over chunk coordinates like the registry's; stable, churned and missing keys never overlap
+    private static long key(int i)
+    {
+        return ChunkRegistry.chunkKey(i % 100 - 50, i / 100 - 50);
+    }
+    
+    private static long stable(int i)
+    {
+        return ChunkRegistry.chunkKey(i, 0);
+    }
+    
+    private static long churn(int i)
+    {
+        return ChunkRegistry.chunkKey(i, 1);
+    }
+    
+    private static long missing(int i)
+    {
+        return ChunkRegistry.chunkKey(i, -1);
+    }
+}
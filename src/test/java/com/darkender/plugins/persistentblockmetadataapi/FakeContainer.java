@@ -0,0 +1,83 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.craftbukkit.persistence.CraftPersistentDataContainer;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+/**
+ * An in-memory PersistentDataContainer that keeps values as they are set instead of converting them to tags
+ * Nested containers are copied on the way in and out, like CraftBukkit converting them to and from compounds
+ * Its keys can be listed like those of a server's container, since it extends the fake CraftBukkit class
+ */
+final class FakeContainer extends CraftPersistentDataContainer implements PersistentDataContainer
+{
+    static final PersistentDataAdapterContext CONTEXT = FakeContainer::new;
+    
+    @Override
+    public <T, Z> void set(@NotNull NamespacedKey key, @NotNull PersistentDataType<T, Z> type, @NotNull Z value)
+    {
+        getRaw().put(key.toString(), copy(value));
+    }
+    
+    @Override
+    public <T, Z> boolean has(@NotNull NamespacedKey key, @NotNull PersistentDataType<T, Z> type)
+    {
+        return type.getComplexType().isInstance(getRaw().get(key.toString()));
+    }
+    
+    @Override
+    public <T, Z> Z get(@NotNull NamespacedKey key, @NotNull PersistentDataType<T, Z> type)
+    {
+        // Like CraftBukkit, a value of another type is an error rather than a missing value
+        Object value = getRaw().get(key.toString());
+        if(value != null && !type.getComplexType().isInstance(value))
+        {
+            throw new IllegalArgumentException("The found tag instance cannot store " + type.getComplexType().getSimpleName());
+        }
+        return type.getComplexType().cast(copy(value));
+    }
+    
+    private static Object copy(Object value)
+    {
+        if(!(value instanceof FakeContainer))
+        {
+            return value;
+        }
+        FakeContainer copy = new FakeContainer();
+        for(Map.Entry<String, Object> entry : ((FakeContainer) value).getRaw().entrySet())
+        {
+            copy.getRaw().put(entry.getKey(), copy(entry.getValue()));
+        }
+        return copy;
+    }
+    
+    @Override
+    public <T, Z> Z getOrDefault(@NotNull NamespacedKey key, @NotNull PersistentDataType<T, Z> type, @NotNull Z defaultValue)
+    {
+        Z value = get(key, type);
+        return value == null ? defaultValue : value;
+    }
+    
+    @Override
+    public void remove(@NotNull NamespacedKey key)
+    {
+        getRaw().remove(key.toString());
+    }
+    
+    @Override
+    public boolean isEmpty()
+    {
+        return getRaw().isEmpty();
+    }
+    
+    @Override
+    public @NotNull PersistentDataAdapterContext getAdapterContext()
+    {
+        return CONTEXT;
+    }
+}
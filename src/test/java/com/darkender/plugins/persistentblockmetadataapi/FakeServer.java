@@ -0,0 +1,345 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.AreaEffectCloud;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.BoundingBox;
+import org.bukkit.util.Consumer;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * A minimal in-memory server for the tests and benchmarks, built from proxies
+ * Only what the API touches is implemented; every other method returns null, false or zero
+ * Scheduled tasks are recorded instead of run so callers can run them themselves. Spawned entities stay in their
+ * world until they are removed and are found by entity searches
+ */
+final class FakeServer
+{
+    private static final Object DEFAULT = new Object();
+    private static final Logger logger = Logger.getLogger("FakeServer");
+    private static final List<Runnable> tasks = new ArrayList<>();
+    private static int nextEntityID = 0;
+    private static Server server = null;
+    
+    private interface Handler
+    {
+        /**
+         * Handles a call to a fake
+         * @param name the name of the called method
+         * @param args the arguments of the call
+         * @return the result or {@link #DEFAULT} to return the default value of the method's return type
+         */
+        Object handle(String name, Object[] args);
+    }
+    
+    private FakeServer()
+    {
+    }
+    
+    /**
+     * Installs the fake server as Bukkit's server if it hasn't been already
+     */
+    static synchronized void install()
+    {
+        if(server != null)
+        {
+            return;
+        }
+        BukkitTask task = fake(BukkitTask.class, (name, args) -> DEFAULT);
+        BukkitScheduler scheduler = fake(BukkitScheduler.class, (name, args) ->
+        {
+            if(name.equals("runTaskTimer") && args[1] instanceof Runnable)
+            {
+                tasks.add((Runnable) args[1]);
+                return task;
+            }
+            return DEFAULT;
+        });
+        PluginManager pluginManager = fake(PluginManager.class, (name, args) -> DEFAULT);
+        server = fake(Server.class, (name, args) ->
+        {
+            switch(name)
+            {
+                case "getLogger":
+                    return logger;
+                case "getName":
+                    return "FakeServer";
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "1.15.2-R0.1-SNAPSHOT";
+                case "isPrimaryThread":
+                    return true;
+                case "getScheduler":
+                    return scheduler;
+                case "getPluginManager":
+                    return pluginManager;
+                case "getWorlds":
+                    return Collections.emptyList();
+                default:
+                    return DEFAULT;
+            }
+        });
+        Bukkit.setServer(server);
+    }
+    
+    /**
+     * Gets the tasks scheduled with runTaskTimer, in the order they were scheduled
+     * @return the scheduled tasks
+     */
+    static List<Runnable> getTasks()
+    {
+        return tasks;
+    }
+    
+    /**
+     * Gets the entity id the next spawned entity will get
+     * @return the next entity id
+     */
+    static int getNextEntityID()
+    {
+        return nextEntityID;
+    }
+    
+    static Plugin plugin(String pluginName)
+    {
+        return fake(Plugin.class, (name, args) ->
+        {
+            switch(name)
+            {
+                case "getName":
+                    return pluginName;
+                case "getServer":
+                    return server;
+                case "getLogger":
+                    return logger;
+                case "isEnabled":
+                    return true;
+                default:
+                    return DEFAULT;
+            }
+        });
+    }
+    
+    @SuppressWarnings("unchecked")
+    static World world(String worldName)
+    {
+        UUID uid = UUID.randomUUID();
+        File folder = new File(System.getProperty("java.io.tmpdir"), "fakeserver-" + worldName + "-" + uid);
+        FakeContainer container = new FakeContainer();
+        Map<Long, List<Entity>> entities = new HashMap<>();
+        World[] world = new World[1];
+        world[0] = fake(World.class, (name, args) ->
+        {
+            switch(name)
+            {
+                case "getUID":
+                    return uid;
+                case "getName":
+                    return worldName;
+                case "getWorldFolder":
+                    return folder;
+                case "getPersistentDataContainer":
+                    return container;
+                case "getBlockAt":
+                    return args.length == 3 ? block(world[0], (int) args[0], (int) args[1], (int) args[2]) : DEFAULT;
+                case "getChunkAt":
+                    return args.length == 2 ? chunk(world[0], (int) args[0], (int) args[1], entities) : DEFAULT;
+                case "getNearbyEntities":
+                    return args.length > 0 && args[0] instanceof BoundingBox ?
+                            nearby(entities, (BoundingBox) args[0], args.length == 2 ? (Predicate<Entity>) args[1] : null) :
+                            Collections.emptyList();
+                case "getLoadedChunks":
+                    return new Chunk[0];
+                case "isChunkLoaded":
+                    return true;
+                case "spawn":
+                    return spawn((Location) args[0], args.length == 3 ? args[2] : null, entities);
+                default:
+                    return DEFAULT;
+            }
+        });
+        return world[0];
+    }
+    
+    /**
+     * Gets a chunk of a world created by {@link #world(String)}
+     * @param world the world the chunk is in
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return the chunk
+     */
+    static Chunk chunk(World world, int chunkX, int chunkZ)
+    {
+        return world.getChunkAt(chunkX, chunkZ);
+    }
+    
+    private static Chunk chunk(World world, int chunkX, int chunkZ, Map<Long, List<Entity>> entities)
+    {
+        return fake(Chunk.class, (name, args) ->
+        {
+            switch(name)
+            {
+                case "getWorld":
+                    return world;
+                case "getX":
+                    return chunkX;
+                case "getZ":
+                    return chunkZ;
+                case "isLoaded":
+                    return true;
+                case "getBlock":
+                    return block(world, (chunkX << 4) + (int) args[0], (int) args[1], (chunkZ << 4) + (int) args[2]);
+                case "getEntities":
+                    return entities.getOrDefault(ChunkRegistry.chunkKey(chunkX, chunkZ), Collections.emptyList()).toArray(new Entity[0]);
+                default:
+                    return DEFAULT;
+            }
+        });
+    }
+    
+    static Block block(World world, int x, int y, int z)
+    {
+        return fake(Block.class, (name, args) ->
+        {
+            switch(name)
+            {
+                case "getWorld":
+                    return world;
+                case "getX":
+                    return x;
+                case "getY":
+                    return y;
+                case "getZ":
+                    return z;
+                case "getLocation":
+                    return args.length == 0 ? new Location(world, x, y, z) : DEFAULT;
+                default:
+                    return DEFAULT;
+            }
+        });
+    }
+    
+    private static List<Entity> nearby(Map<Long, List<Entity>> entities, BoundingBox box, Predicate<Entity> filter)
+    {
+        List<Entity> result = new ArrayList<>();
+        for(int chunkX = (int) Math.floor(box.getMinX()) >> 4; chunkX <= (int) Math.floor(box.getMaxX()) >> 4; chunkX++)
+        {
+            for(int chunkZ = (int) Math.floor(box.getMinZ()) >> 4; chunkZ <= (int) Math.floor(box.getMaxZ()) >> 4; chunkZ++)
+            {
+                for(Entity entity : entities.getOrDefault(ChunkRegistry.chunkKey(chunkX, chunkZ), Collections.emptyList()))
+                {
+                    if(box.contains(entity.getLocation().toVector()) && (filter == null || filter.test(entity)))
+                    {
+                        result.add(entity);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static AreaEffectCloud spawn(Location location, Object function, Map<Long, List<Entity>> worldEntities)
+    {
+        List<Entity> entities = worldEntities.computeIfAbsent(
+                ChunkRegistry.chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4), key -> new ArrayList<>());
+        int id = nextEntityID++;
+        FakeContainer container = new FakeContainer();
+        boolean[] removed = new boolean[1];
+        AreaEffectCloud[] cloud = new AreaEffectCloud[1];
+        cloud[0] = fake(AreaEffectCloud.class, (name, args) ->
+        {
+            switch(name)
+            {
+                case "getEntityId":
+                    return id;
+                case "getWorld":
+                    return location.getWorld();
+                case "getLocation":
+                    return args.length == 0 ? location.clone() : DEFAULT;
+                case "getType":
+                    return EntityType.AREA_EFFECT_CLOUD;
+                case "getPersistentDataContainer":
+                    return container;
+                case "isValid":
+                    return !removed[0];
+                case "isDead":
+                    return removed[0];
+                case "remove":
+                    removed[0] = true;
+                    entities.remove(cloud[0]);
+                    return DEFAULT;
+                default:
+                    return DEFAULT;
+            }
+        });
+        if(function != null)
+        {
+            ((Consumer<AreaEffectCloud>) function).accept(cloud[0]);
+        }
+        entities.add(cloud[0]);
+        return cloud[0];
+    }
+    
+    private static <T> T fake(Class<T> type, Handler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) ->
+        {
+            Object[] arguments = args == null ? new Object[0] : args;
+            switch(method.getName())
+            {
+                case "equals":
+                    if(arguments.length == 1)
+                    {
+                        return proxy == arguments[0];
+                    }
+                    break;
+                case "hashCode":
+                    if(arguments.length == 0)
+                    {
+                        return System.identityHashCode(proxy);
+                    }
+                    break;
+                case "toString":
+                    if(arguments.length == 0)
+                    {
+                        return "Fake" + type.getSimpleName();
+                    }
+                    break;
+            }
+            Object result = handler.handle(method.getName(), arguments);
+            return result == DEFAULT ? defaultValue(method.getReturnType()) : result;
+        }));
+    }
+    
+    private static Object defaultValue(Class<?> type)
+    {
+        if(type == void.class || !type.isPrimitive())
+        {
+            return null;
+        }
+        // A new primitive array holds the zero value of its type
+        return Array.get(Array.newInstance(type, 1), 0);
+    }
+}
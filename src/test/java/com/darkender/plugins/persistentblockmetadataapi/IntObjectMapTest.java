@@ -0,0 +1,108 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.darkender.plugins.persistentblockmetadataapi.TestThreads.join;
+import static com.darkender.plugins.persistentblockmetadataapi.TestThreads.thread;
+import static org.junit.Assert.*;
+
+public class IntObjectMapTest
+{
+    private static final int READERS = 4;
+    private static final int STABLE = 1000;
+    private static final int CHURN = 200_000;
+    
+    @Test
+    public void putGetRemove()
+    {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        int key = BlockKey.pack(3, -60, 12);
+        assertNull(map.put(key, "a"));
+        assertEquals("a", map.put(key, "b"));
+        assertNull(map.put(0, "zero"));
+        assertEquals("b", map.get(key));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(BlockKey.pack(12, -60, 3)));
+        assertEquals(2, map.size());
+        assertEquals(2, map.keys().length);
+        
+        assertEquals("b", map.remove(key));
+        assertNull(map.remove(key));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+    }
+    
+    @Test
+    public void readsDuringWrites() throws Exception
+    {
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        for(int i = 0; i < STABLE; i++)
+        {
+            map.put(stable(i), i);
+        }
+        
+        // One thread writes, like the main thread does, while others read keys that are always present and keys that never are
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread writer = thread(failure, start, () ->
+        {
+            for(int i = 0; i < CHURN; i++)
+            {
+                map.put(churn(i), i);
+                if(i % 4 != 0)
+                {
+                    map.remove(churn(i));
+                }
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for(int t = 0; t < READERS; t++)
+        {
+            readers.add(thread(failure, start, () ->
+            {
+                int i = 0;
+                while(writer.isAlive())
+                {
+                    assertEquals(Integer.valueOf(i % STABLE), map.get(stable(i % STABLE)));
+                    assertFalse(map.containsKey(missing(i)));
+                    i++;
+                }
+            }));
+        }
+        start.countDown();
+        writer.join();
+        join(readers);
+        if(failure.get() != null)
+        {
+            throw new AssertionError("Concurrent access failed", failure.get());
+        }
+        
+        assertEquals(STABLE + CHURN / 4, map.size());
+        for(int i = 0; i < CHURN; i++)
+        {
+            assertEquals(i % 4 == 0 ? Integer.valueOf(i) : null, map.get(churn(i)));
+        }
+    }
+    
+    // Stable, churned and missing keys never overlap
+    private static int stable(int i)
+    {
+        return i * 3 + 1;
+    }
+    
+    private static int churn(int i)
+    {
+        return i * 3 + 2;
+    }
+    
+    private static int missing(int i)
+    {
+        return i * 3 + 3;
+    }
+}
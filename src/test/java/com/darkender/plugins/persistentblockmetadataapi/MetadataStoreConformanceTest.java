@@ -0,0 +1,253 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.Plugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * The behavior every {@link MetadataStore} has to share, run against each store through a subclass
+ */
+public abstract class MetadataStoreConformanceTest
+{
+    protected Plugin plugin;
+    protected World world;
+    protected MetadataStore store;
+    private NamespacedKey valueKey;
+    
+    /**
+     * Opens a store for {@link #plugin}, which finds what earlier stores of the plugin saved
+     * @return the store
+     */
+    protected abstract MetadataStore open();
+    
+    @Before
+    public void setUp()
+    {
+        FakeServer.install();
+        plugin = FakeServer.plugin("ConformanceTest");
+        world = FakeServer.world("world");
+        valueKey = new NamespacedKey(plugin, "value");
+        store = open();
+    }
+    
+    @After
+    public void tearDown() throws IOException
+    {
+        store.close();
+        Path folder = world.getWorldFolder().toPath();
+        if(Files.exists(folder))
+        {
+            try(Stream<Path> files = Files.walk(folder))
+            {
+                for(Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+    
+    protected PersistentDataContainer value(StoredChunk stored, int value)
+    {
+        PersistentDataContainer container = stored.newContainer();
+        container.set(valueKey, PersistentDataType.INTEGER, value);
+        return container;
+    }
+    
+    protected Integer valueOf(PersistentDataContainer container)
+    {
+        return container == null ? null : container.get(valueKey, PersistentDataType.INTEGER);
+    }
+    
+    protected Map<Integer, Integer> entries(StoredChunk stored)
+    {
+        Map<Integer, Integer> entries = new HashMap<>();
+        stored.forEach((key, value) -> assertNull("Visited twice", entries.put(key, valueOf(value))));
+        return entries;
+    }
+    
+    /**
+     * Saves a chunk's changes, unloads it and saves its world
+     */
+    protected void saveAndUnload(StoredChunk stored, int count)
+    {
+        stored.save(count);
+        stored.unload();
+        store.save(world);
+    }
+    
+    @Test
+    public void loadWithoutMetadata()
+    {
+        assertNull(store.load(FakeServer.chunk(world, 0, 0)));
+        assertNull(store.load(FakeServer.chunk(world, -5, 12)));
+    }
+    
+    @Test
+    public void createSetGet()
+    {
+        StoredChunk stored = store.create(world, 0, 0);
+        int key = BlockKey.pack(1, 64, 2);
+        stored.set(key, value(stored, 5));
+        assertEquals(Integer.valueOf(5), valueOf(stored.get(key)));
+        assertNull(stored.get(BlockKey.pack(2, 64, 1)));
+        
+        stored.set(key, value(stored, 6));
+        assertEquals(Integer.valueOf(6), valueOf(stored.get(key)));
+    }
+    
+    @Test
+    public void remove()
+    {
+        StoredChunk stored = store.create(world, 0, 0);
+        int key = BlockKey.pack(1, 64, 2);
+        stored.set(key, value(stored, 5));
+        stored.remove(key);
+        stored.remove(BlockKey.pack(3, 3, 3));
+        assertNull(stored.get(key));
+        assertTrue(entries(stored).isEmpty());
+    }
+    
+    @Test
+    public void forEachVisitsEveryEntry()
+    {
+        StoredChunk stored = store.create(world, -1, -1);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for(int i = 0; i < 50; i++)
+        {
+            int key = BlockKey.pack(i & 15, i * 7 - 64, (i * 3) & 15);
+            stored.set(key, value(stored, i));
+            expected.put(key, i);
+        }
+        stored.remove(BlockKey.pack(0, -64, 0));
+        expected.remove(BlockKey.pack(0, -64, 0));
+        assertEquals(expected, entries(stored));
+    }
+    
+    @Test
+    public void packed()
+    {
+        StoredChunk stored = store.create(world, 0, 0);
+        assertNull(stored.getPacked());
+        stored.setPacked(value(stored, 9));
+        assertEquals(Integer.valueOf(9), valueOf(stored.getPacked()));
+        stored.setPacked(null);
+        assertNull(stored.getPacked());
+    }
+    
+    @Test
+    public void unloadAndLoad()
+    {
+        StoredChunk stored = store.create(world, 3, -4);
+        int key = BlockKey.pack(5, 10, 6);
+        stored.set(key, value(stored, 7));
+        stored.setPacked(value(stored, 8));
+        saveAndUnload(stored, 1);
+        
+        StoredChunk loaded = store.load(FakeServer.chunk(world, 3, -4));
+        assertNotNull(loaded);
+        assertEquals(Integer.valueOf(7), valueOf(loaded.get(key)));
+        assertEquals(Integer.valueOf(8), valueOf(loaded.getPacked()));
+        assertTrue(loaded.getCount() == -1 || loaded.getCount() == 1);
+        assertNull(store.load(FakeServer.chunk(world, 4, -4)));
+    }
+    
+    @Test
+    public void changesAfterLoad()
+    {
+        StoredChunk stored = store.create(world, 0, 0);
+        stored.set(BlockKey.pack(0, 0, 0), value(stored, 1));
+        stored.set(BlockKey.pack(1, 0, 0), value(stored, 2));
+        saveAndUnload(stored, 2);
+        
+        StoredChunk loaded = store.load(FakeServer.chunk(world, 0, 0));
+        loaded.remove(BlockKey.pack(0, 0, 0));
+        loaded.set(BlockKey.pack(2, 0, 0), value(loaded, 3));
+        saveAndUnload(loaded, 2);
+        
+        Map<Integer, Integer> expected = new HashMap<>();
+        expected.put(BlockKey.pack(1, 0, 0), 2);
+        expected.put(BlockKey.pack(2, 0, 0), 3);
+        assertEquals(expected, entries(store.load(FakeServer.chunk(world, 0, 0))));
+    }
+    
+    @Test
+    public void createKeepsSavedEntries()
+    {
+        // Chunks that aren't loaded are created for writes, which mustn't drop what they already saved
+        StoredChunk stored = store.create(world, 0, 0);
+        stored.set(BlockKey.pack(0, 0, 0), value(stored, 1));
+        stored.setPacked(value(stored, 2));
+        saveAndUnload(stored, 1);
+        
+        StoredChunk created = store.create(world, 0, 0);
+        created.set(BlockKey.pack(1, 0, 0), value(created, 3));
+        saveAndUnload(created, 2);
+        
+        StoredChunk loaded = store.load(FakeServer.chunk(world, 0, 0));
+        Map<Integer, Integer> expected = new HashMap<>();
+        expected.put(BlockKey.pack(0, 0, 0), 1);
+        expected.put(BlockKey.pack(1, 0, 0), 3);
+        assertEquals(expected, entries(loaded));
+        assertEquals(Integer.valueOf(2), valueOf(loaded.getPacked()));
+    }
+    
+    @Test
+    public void delete()
+    {
+        StoredChunk stored = store.create(world, 0, 0);
+        stored.set(BlockKey.pack(1, 2, 3), value(stored, 1));
+        stored.save(1);
+        stored.delete();
+        store.save(world);
+        assertNull(store.load(FakeServer.chunk(world, 0, 0)));
+    }
+    
+    @Test
+    public void deleteAfterLoad()
+    {
+        StoredChunk stored = store.create(world, 0, 0);
+        stored.set(BlockKey.pack(1, 2, 3), value(stored, 1));
+        stored.setPacked(value(stored, 2));
+        saveAndUnload(stored, 1);
+        
+        store.load(FakeServer.chunk(world, 0, 0)).delete();
+        store.save(world);
+        assertNull(store.load(FakeServer.chunk(world, 0, 0)));
+    }
+    
+    @Test
+    public void closeAndReopen()
+    {
+        StoredChunk stored = store.create(world, 31, 32);
+        stored.set(BlockKey.pack(15, 255, 15), value(stored, 1));
+        stored.set(BlockKey.pack(0, -64, 0), value(stored, 2));
+        stored.setPacked(value(stored, 3));
+        saveAndUnload(stored, 2);
+        store.close();
+        
+        store = open();
+        StoredChunk loaded = store.load(FakeServer.chunk(world, 31, 32));
+        assertNotNull(loaded);
+        Map<Integer, Integer> expected = new HashMap<>();
+        expected.put(BlockKey.pack(15, 255, 15), 1);
+        expected.put(BlockKey.pack(0, -64, 0), 2);
+        assertEquals(expected, entries(loaded));
+        assertEquals(Integer.valueOf(3), valueOf(loaded.getPacked()));
+    }
+}
@@ -0,0 +1,169 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.util.BoundingBox;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PackedValuesTest
+{
+    private static final PackedCodec<Integer> POWER = new PackedCodec<Integer>()
+    {
+        @Override
+        public String getName()
+        {
+            return "power";
+        }
+        
+        @Override
+        public int getByteColumns()
+        {
+            return 1;
+        }
+        
+        @Override
+        public int getIntColumns()
+        {
+            return 0;
+        }
+        
+        @Override
+        public int getLongColumns()
+        {
+            return 0;
+        }
+        
+        @Override
+        public void write(Integer value, PackedRow row)
+        {
+            row.setByte(0, value.byteValue());
+        }
+        
+        @Override
+        public Integer read(PackedRow row)
+        {
+            return (int) row.getByte(0);
+        }
+    };
+    
+    private Plugin plugin;
+    private PersistentBlockMetadataAPI api;
+    private World world;
+    private NamespacedKey key;
+    
+    @Before
+    public void setUp()
+    {
+        FakeServer.install();
+        world = FakeServer.world("world");
+        plugin = FakeServer.plugin("PackedValuesTest");
+        api = new PersistentBlockMetadataAPI(plugin);
+        key = new NamespacedKey(plugin, "value");
+    }
+    
+    @Test
+    public void packedValuesCountAsMetadata()
+    {
+        api.setPacked(world, 1, 2, 3, POWER, 15);
+        assertTrue(api.has(world, 1, 2, 3));
+        assertFalse(api.has(world, 1, 3, 3));
+        
+        Block block = FakeServer.block(world, 1, 2, 3);
+        assertEquals(Collections.singletonList(block), api.getTracked(Arrays.asList(block, FakeServer.block(world, 2, 2, 3))));
+        Set<Block> locations = api.getMetadataLocations(FakeServer.chunk(world, 0, 0));
+        assertEquals(1, locations.size());
+        Block location = locations.iterator().next();
+        assertEquals(Arrays.asList(1, 2, 3), Arrays.asList(location.getX(), location.getY(), location.getZ()));
+        assertEquals(1, api.getStatistics().getTaggedBlocks());
+    }
+    
+    @Test
+    public void removeDropsPackedValues()
+    {
+        api.setPacked(world, 1, 2, 3, POWER, 15);
+        api.setInt(world, 1, 2, 3, key, 1);
+        api.remove(world, 1, 2, 3);
+        assertFalse(api.has(world, 1, 2, 3));
+        assertNull(api.getPacked(world, 1, 2, 3, POWER));
+        
+        api.setPacked(world, 4, 5, 6, POWER, 7);
+        api.removeAll(Collections.singletonList(FakeServer.block(world, 4, 5, 6)));
+        assertFalse(api.hasPacked(world, 4, 5, 6, POWER));
+        assertNull(api.getMetadataLocations(FakeServer.chunk(world, 0, 0)));
+    }
+    
+    @Test
+    public void moveAllMovesPackedValues()
+    {
+        // The second block moves into the first one's spot, and the first one across the chunk border
+        api.setPacked(world, 15, 2, 3, POWER, 15);
+        api.setPacked(world, 14, 2, 3, POWER, 14);
+        api.setInt(world, 14, 2, 3, key, 1);
+        api.moveAll(Arrays.asList(FakeServer.block(world, 14, 2, 3), FakeServer.block(world, 15, 2, 3)), BlockFace.EAST);
+        
+        assertFalse(api.has(world, 14, 2, 3));
+        assertEquals(Integer.valueOf(14), api.getPacked(world, 15, 2, 3, POWER));
+        assertEquals(1, api.getInt(world, 15, 2, 3, key, 0));
+        assertEquals(Integer.valueOf(15), api.getPacked(world, 16, 2, 3, POWER));
+        assertTrue(api.has(world, 16, 2, 3));
+        assertNull(api.peek(world, 16, 2, 3));
+    }
+    
+    @Test
+    public void indexCountsPackedValues()
+    {
+        api.setPacked(world, 1, 2, 3, POWER, 15);
+        api.setPacked(world, 1, 3, 3, POWER, 14);
+        api.setInt(world, 1, 3, 3, key, 1);
+        api.flush();
+        List<Integer> counts = new ArrayList<>();
+        api.forEachTaggedChunk(world, (chunkX, chunkZ, count) -> counts.add(count));
+        assertEquals(Collections.singletonList(2), counts);
+    }
+    
+    @Test
+    public void spatialQueriesFindPackedValues()
+    {
+        api.setPacked(world, 1, 2, 3, POWER, 15);
+        api.setPacked(world, 18, 2, 3, POWER, 14);
+        api.removePacked(world, 18, 2, 3, POWER);
+        List<Integer> found = new ArrayList<>();
+        api.forEachInBox(world, new BoundingBox(0, 0, 0, 32, 16, 16), (w, x, y, z) -> found.addAll(Arrays.asList(x, y, z)));
+        assertEquals(Arrays.asList(1, 2, 3), found);
+        
+        found.clear();
+        api.forEachInRadius(world, 1.5, 2.5, 3.5, 2, (w, x, y, z) -> found.addAll(Arrays.asList(x, y, z)));
+        assertEquals(Arrays.asList(1, 2, 3), found);
+        
+        found.clear();
+        assertTrue(api.findNearest(world, 10, 2, 3, 16, (w, x, y, z) -> found.addAll(Arrays.asList(x, y, z))));
+        assertEquals(Arrays.asList(1, 2, 3), found);
+        
+        // The block has no container, so it isn't part of the region's containers
+        assertTrue(api.getRegion(world, new BoundingBox(0, 0, 0, 16, 16, 16)).isEmpty());
+    }
+    
+    @Test
+    public void storedTablesAreReadWithoutTheirCodec()
+    {
+        PackedTable table = new PackedTable(POWER);
+        POWER.write(9, table.at(table.insert(BlockKey.pack(1, 2, 3))));
+        PackedTable decoded = PackedTable.decode(plugin, POWER.getName(), table.encode(plugin, new FakeContainer()));
+        assertEquals(1, decoded.size());
+        assertEquals(BlockKey.pack(1, 2, 3), decoded.keyAt(0));
+        decoded.fit(POWER);
+        assertEquals(Integer.valueOf(9), POWER.read(decoded.at(0)));
+    }
+}
@@ -0,0 +1,112 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class RegionFileStoreConformanceTest extends MetadataStoreConformanceTest
+{
+    @Override
+    protected MetadataStore open()
+    {
+        return new RegionFileStore(plugin);
+    }
+    
+    private NamespacedKey bytesKey()
+    {
+        return new NamespacedKey(plugin, "bytes");
+    }
+    
+    private Path folder()
+    {
+        return world.getWorldFolder().toPath().resolve("blockmetadata").resolve("conformancetest");
+    }
+    
+    private long files() throws IOException
+    {
+        try(Stream<Path> files = Files.list(folder()))
+        {
+            return files.count();
+        }
+    }
+    
+    @Test
+    public void chunksAreNotWrittenBeforeTheWorldSaves() throws IOException
+    {
+        StoredChunk stored = store.create(world, 0, 0);
+        stored.set(BlockKey.pack(1, 2, 3), value(stored, 1));
+        stored.save(1);
+        stored.unload();
+        
+        // Staging opens the region file, which then only holds its table
+        Path region = folder().resolve("r.0.0.pbm");
+        assertEquals(4096, Files.size(region));
+        store.save(world);
+        assertEquals(1, files());
+        assertTrue(Files.size(region) > 4096);
+    }
+    
+    @Test
+    public void oversizedChunk() throws IOException
+    {
+        // Far more than the 255 sectors a chunk can have inside its region file
+        Random random = new Random(1);
+        StoredChunk stored = store.create(world, -1, 0);
+        byte[][] values = new byte[300][];
+        for(int i = 0; i < values.length; i++)
+        {
+            values[i] = new byte[8192];
+            random.nextBytes(values[i]);
+            PersistentDataContainer container = stored.newContainer();
+            container.set(bytesKey(), PersistentDataType.BYTE_ARRAY, values[i]);
+            stored.set(i << 8, container);
+        }
+        saveAndUnload(stored, values.length);
+        assertEquals(2, files());
+        store.close();
+        
+        store = open();
+        StoredChunk loaded = store.load(FakeServer.chunk(world, -1, 0));
+        assertNotNull(loaded);
+        for(int i = 0; i < values.length; i++)
+        {
+            assertArrayEquals(values[i], loaded.get(i << 8).get(bytesKey(), PersistentDataType.BYTE_ARRAY));
+        }
+        
+        // A new version gets a file of its own, and the previous one is dropped once the table points to the new one
+        random.nextBytes(values[0]);
+        PersistentDataContainer changed = loaded.newContainer();
+        changed.set(bytesKey(), PersistentDataType.BYTE_ARRAY, values[0]);
+        loaded.set(0, changed);
+        saveAndUnload(loaded, values.length);
+        assertEquals(2, files());
+        store.close();
+        
+        store = open();
+        loaded = store.load(FakeServer.chunk(world, -1, 0));
+        assertArrayEquals(values[0], loaded.get(0).get(bytesKey(), PersistentDataType.BYTE_ARRAY));
+        
+        // Shrinking the chunk moves it back into the region file and drops its own file
+        for(int i = 1; i < values.length; i++)
+        {
+            loaded.remove(i << 8);
+        }
+        saveAndUnload(loaded, 1);
+        assertEquals(1, files());
+        store.close();
+        
+        store = open();
+        loaded = store.load(FakeServer.chunk(world, -1, 0));
+        assertEquals(1, entries(loaded).size());
+        assertArrayEquals(values[0], loaded.get(0).get(bytesKey(), PersistentDataType.BYTE_ARRAY));
+    }
+}
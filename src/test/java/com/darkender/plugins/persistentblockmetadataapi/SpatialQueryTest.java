@@ -0,0 +1,50 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.util.BoundingBox;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpatialQueryTest
+{
+    private PersistentBlockMetadataAPI api;
+    private World world;
+    private NamespacedKey key;
+    
+    @Before
+    public void setUp()
+    {
+        FakeServer.install();
+        world = FakeServer.world("world");
+        Plugin plugin = FakeServer.plugin("SpatialQueryTest");
+        api = new PersistentBlockMetadataAPI(plugin);
+        key = new NamespacedKey(plugin, "value");
+    }
+    
+    @Test
+    public void unboundedQueriesEnd()
+    {
+        assertFalse(api.findNearest(world, 0, 0, 0, Double.POSITIVE_INFINITY, (w, x, y, z) -> fail()));
+        
+        api.setInt(world, 1, -5, 3, key, 1);
+        api.setInt(world, 40000, 300, -40000, key, 2);
+        List<Integer> found = new ArrayList<>();
+        BoundingBox everything = new BoundingBox(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        api.forEachInBox(world, everything, (w, x, y, z) -> found.add(y));
+        found.sort(null);
+        assertEquals(Arrays.asList(-5, 300), found);
+        
+        found.clear();
+        assertTrue(api.findNearest(world, 39000, 0, -39000, Double.POSITIVE_INFINITY, (w, x, y, z) -> found.add(y)));
+        assertEquals(Arrays.asList(300), found);
+    }
+}
@@ -0,0 +1,48 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Starts test threads together and collects the first failure of any of them
+ */
+final class TestThreads
+{
+    private TestThreads()
+    {
+    }
+    
+    /**
+     * Starts a thread that waits for a latch before running
+     * @param failure where the first exception or failed assertion of any thread is stored
+     * @param start the latch all threads wait for
+     * @param body what the thread runs
+     * @return the started thread
+     */
+    static Thread thread(AtomicReference<Throwable> failure, CountDownLatch start, Runnable body)
+    {
+        Thread thread = new Thread(() ->
+        {
+            try
+            {
+                start.await();
+                body.run();
+            }
+            catch(Throwable e)
+            {
+                failure.compareAndSet(null, e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+    
+    static void join(List<Thread> threads) throws InterruptedException
+    {
+        for(Thread thread : threads)
+        {
+            thread.join();
+        }
+    }
+}
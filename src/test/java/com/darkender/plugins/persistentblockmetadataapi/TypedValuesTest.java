@@ -0,0 +1,48 @@
+package com.darkender.plugins.persistentblockmetadataapi;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.Plugin;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TypedValuesTest
+{
+    private PersistentBlockMetadataAPI api;
+    private World world;
+    private NamespacedKey key;
+    
+    @Before
+    public void setUp()
+    {
+        FakeServer.install();
+        world = FakeServer.world("world");
+        Plugin plugin = FakeServer.plugin("TypedValuesTest");
+        api = new PersistentBlockMetadataAPI(plugin);
+        key = new NamespacedKey(plugin, "value");
+    }
+    
+    @Test
+    public void valuesOfAnotherTypeCountAsMissing()
+    {
+        api.setLong(world, 1, 2, 3, key, 5L);
+        assertEquals(5L, api.getLong(world, 1, 2, 3, key, 0L));
+        assertEquals(-1, api.getInt(world, 1, 2, 3, key, -1));
+        assertNull(api.getByteArray(world, 1, 2, 3, key));
+        assertEquals(-1, api.getInt(world, 4, 5, 6, key, -1));
+    }
+    
+    @Test
+    public void setStoresACopy()
+    {
+        PersistentDataContainer value = new FakeContainer();
+        value.set(key, PersistentDataType.INTEGER, 1);
+        api.set(world, 1, 2, 3, value);
+        value.set(key, PersistentDataType.INTEGER, 2);
+        assertEquals(1, api.getInt(world, 1, 2, 3, key, 0));
+    }
+}
@@ -0,0 +1,18 @@
+package org.bukkit.craftbukkit.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stands in for CraftBukkit's container so the API can read the keys of fake containers through its raw tag accessor
+ * Values are kept as they are set instead of being converted to tags
+ */
+public class CraftPersistentDataContainer
+{
+    private final Map<String, Object> raw = new HashMap<>();
+    
+    public Map<String, Object> getRaw()
+    {
+        return raw;
+    }
+}